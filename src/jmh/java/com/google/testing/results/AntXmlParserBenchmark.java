@@ -0,0 +1,111 @@
+/*
+ * Copyright 2014 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.testing.results;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.testing.results.TestSuiteProto.CapturedOutput;
+import com.google.testing.results.TestSuiteProto.Property;
+import com.google.testing.results.TestSuiteProto.TestCase;
+import com.google.testing.results.TestSuiteProto.TestSuite;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.ByteArrayInputStream;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import javax.xml.stream.XMLStreamException;
+
+/**
+ * Throughput of {@link AntXmlParser} on small, large and failure-heavy reports. Run with
+ * {@code -prof gc} to also report the allocation rate.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class AntXmlParserBenchmark {
+  @Param({"SMALL", "LARGE", "FAILURE_HEAVY"})
+  String shape;
+
+  /** Whether stack traces are structured while parsing or left for {@link StackTraceView}. */
+  @Param({"true", "false"})
+  boolean structureStackTraces;
+
+  private byte[] report;
+  private AntXmlParser parser;
+
+  @Setup
+  public void setUp() throws XMLStreamException {
+    report = BenchmarkReports.Shape.valueOf(shape).bytes();
+    parser = AntXmlParser.newBuilder()
+        .setStructureStackTraces(structureStackTraces)
+        .build();
+  }
+
+  @Benchmark
+  public List<TestSuite> parse() throws XmlParseException {
+    return parser.parse(new ByteArrayInputStream(report), UTF_8);
+  }
+
+  @Benchmark
+  public void parseStreaming(final Blackhole blackhole) throws XmlParseException {
+    parser.parse(new ByteArrayInputStream(report), UTF_8, new TestResultsListener() {
+      @Override
+      public void onSuiteStart(TestSuite suite) {
+        blackhole.consume(suite);
+      }
+
+      @Override
+      public void onProperty(Property property) {
+        blackhole.consume(property);
+      }
+
+      @Override
+      public void onTestCase(TestCase testCase) {
+        blackhole.consume(testCase);
+      }
+
+      @Override
+      public void onSystemOut(CapturedOutput output) {
+        blackhole.consume(output);
+      }
+
+      @Override
+      public void onSystemErr(CapturedOutput output) {
+        blackhole.consume(output);
+      }
+
+      @Override
+      public void onSuiteEnd() {}
+    });
+  }
+}
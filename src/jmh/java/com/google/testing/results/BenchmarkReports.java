@@ -0,0 +1,102 @@
+/*
+ * Copyright 2014 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.testing.results;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+
+import javax.xml.stream.XMLStreamException;
+
+/**
+ * Ant XML reports shaped like the fixtures in {@code src/test/resources}, scaled up for
+ * benchmarking with {@link AntXmlGenerator}.
+ */
+final class BenchmarkReports {
+  /** The report shapes the benchmarks are parameterized with. */
+  enum Shape {
+    /** A single passing suite, like {@code simple.xml}. */
+    SMALL(AntXmlGenerator.newBuilder()
+        .setTestsPerSuite(1)),
+    /** Many suites with properties and mostly passing tests, like {@code multiple-testsuites.xml}. */
+    LARGE(AntXmlGenerator.newBuilder()
+        .setSuiteCount(200)
+        .setTestsPerSuite(50)
+        .setFailureRatio(0.05)
+        .setPropertyCount(2)
+        .setSystemOutBytes(100)),
+    /** Every test errors with a long stack trace, like {@code guice-error.xml}. */
+    FAILURE_HEAVY(AntXmlGenerator.newBuilder()
+        .setSuiteCount(20)
+        .setTestsPerSuite(50)
+        .setErrorRatio(1)
+        .setStackDepth(60)),
+    /** One file of a CI workspace: a single suite with a few failures. */
+    WORKSPACE_FILE(AntXmlGenerator.newBuilder()
+        .setTestsPerSuite(20)
+        .setFailureRatio(0.1)
+        .setStackDepth(30)
+        .setPropertyCount(20)
+        .setSystemOutBytes(1000)),
+    /** Passing suites that log heavily, where captured output is most of the file. */
+    OUTPUT_HEAVY(AntXmlGenerator.newBuilder()
+        .setSuiteCount(10)
+        .setTestsPerSuite(20)
+        .setSystemOutBytes(4 << 20)
+        .setSystemErrBytes(1 << 20));
+
+    final AntXmlGenerator generator;
+
+    Shape(AntXmlGenerator.Builder generator) {
+      this.generator = generator.build();
+    }
+
+    byte[] bytes() throws XMLStreamException {
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      generator.generate(out);
+      return out.toByteArray();
+    }
+  }
+
+  private BenchmarkReports() {}
+
+  /** Writes {@code modules * filesPerModule} reports of the given shape into a workspace tree. */
+  static void writeTree(Path root, int modules, int filesPerModule, Shape shape)
+      throws IOException, XMLStreamException {
+    shape.generator.generateTree(root, modules, filesPerModule);
+  }
+
+  static void deleteTree(Path root) throws IOException {
+    Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+      @Override
+      public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+        Files.delete(file);
+        return FileVisitResult.CONTINUE;
+      }
+
+      @Override
+      public FileVisitResult postVisitDirectory(Path dir, IOException exc) throws IOException {
+        Files.delete(dir);
+        return FileVisitResult.CONTINUE;
+      }
+    });
+  }
+}
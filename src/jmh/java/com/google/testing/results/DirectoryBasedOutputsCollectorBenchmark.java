@@ -0,0 +1,81 @@
+/*
+ * Copyright 2014 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.testing.results;
+
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.testing.results.TestResultsProto.TestResults;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import javax.xml.stream.XMLStreamException;
+
+/**
+ * Time to collect a generated workspace of 1000 reports, serially and on a
+ * {@link ForkJoinPool}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class DirectoryBasedOutputsCollectorBenchmark {
+  /** Parallelism of the executor, or 0 to parse on the calling thread. */
+  @Param({"0", "4"})
+  int threads;
+
+  private Path root;
+  private ExecutorService executor;
+  private DirectoryBasedOutputsCollector collector;
+
+  @Setup
+  public void setUp() throws IOException, XMLStreamException {
+    root = Files.createTempDirectory("collector-benchmark");
+    BenchmarkReports.writeTree(root, 20, 50, BenchmarkReports.Shape.WORKSPACE_FILE);
+    executor = threads == 0 ? MoreExecutors.newDirectExecutorService() : new ForkJoinPool(threads);
+    collector = new DirectoryBasedOutputsCollector(executor);
+  }
+
+  @TearDown
+  public void tearDown() throws IOException {
+    executor.shutdown();
+    BenchmarkReports.deleteTree(root);
+  }
+
+  @Benchmark
+  public TestResults collect() throws IOException {
+    return collector.parse(root);
+  }
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright 2014 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.testing.results;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.testing.results.TestSuiteProto.CapturedOutput;
+import com.google.testing.results.TestSuiteProto.Property;
+import com.google.testing.results.TestSuiteProto.TestCase;
+import com.google.testing.results.TestSuiteProto.TestSuite;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import javax.xml.stream.XMLStreamException;
+
+/**
+ * Compares memory-mapped and buffered reads in {@link AntXmlParser#parse(Path, java.nio.charset.Charset,
+ * TestResultsListener)} for reports from 1 KB to 1 GB. Generating the largest report takes a
+ * while; restrict the sizes with {@code -p size=...} when iterating.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class FileReadBenchmark {
+  /** Roughly the average number of bytes one generated test case takes. */
+  private static final int BYTES_PER_TEST = 200;
+
+  @Param({"1024", "1048576", "104857600", "1073741824"})
+  long size;
+
+  @Param({"false", "true"})
+  boolean mapped;
+
+  private Path report;
+  private AntXmlParser parser;
+
+  @Setup
+  public void setUp() throws IOException, XMLStreamException {
+    report = Files.createTempFile("file-read-benchmark", ".xml");
+    long tests = Math.max(1, size / BYTES_PER_TEST);
+    AntXmlGenerator.newBuilder()
+        .setSuiteCount((int) Math.max(1, tests / 1000))
+        .setTestsPerSuite((int) Math.min(tests, 1000))
+        .setFailureRatio(0.02)
+        .setStackDepth(10)
+        .build()
+        .generate(report);
+    parser = AntXmlParser.newBuilder()
+        .setMemoryMapThreshold(mapped ? 0 : Long.MAX_VALUE)
+        .build();
+  }
+
+  @TearDown
+  public void tearDown() throws IOException {
+    Files.delete(report);
+  }
+
+  @Benchmark
+  public void parse(final Blackhole blackhole) throws IOException, XmlParseException {
+    parser.parse(report, UTF_8, new TestResultsListener() {
+      @Override
+      public void onSuiteStart(TestSuite suite) {
+        blackhole.consume(suite);
+      }
+
+      @Override
+      public void onProperty(Property property) {
+        blackhole.consume(property);
+      }
+
+      @Override
+      public void onTestCase(TestCase testCase) {
+        blackhole.consume(testCase);
+      }
+
+      @Override
+      public void onSystemOut(CapturedOutput output) {
+        blackhole.consume(output);
+      }
+
+      @Override
+      public void onSystemErr(CapturedOutput output) {
+        blackhole.consume(output);
+      }
+
+      @Override
+      public void onSuiteEnd() {}
+    });
+  }
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright 2014 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.testing.results;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.testing.results.TestSuiteProto.TestSuite;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import javax.xml.stream.XMLStreamException;
+
+/**
+ * Throughput of one {@link AntXmlParser} shared by 1 to all available threads, all parsing the
+ * same workspace-sized report. Scores are totals over all threads, so perfect scaling multiplies
+ * them by the thread count.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SharedParserBenchmark {
+  @Param({"WORKSPACE_FILE", "FAILURE_HEAVY"})
+  String shape;
+
+  private byte[] report;
+  private AntXmlParser parser;
+
+  @Setup
+  public void setUp() throws XMLStreamException {
+    report = BenchmarkReports.Shape.valueOf(shape).bytes();
+    parser = AntXmlParser.newBuilder().setStackFrameCache(new StackFrameCache()).build();
+  }
+
+  @Benchmark
+  @Threads(1)
+  public List<TestSuite> oneThread() throws XmlParseException {
+    return parse();
+  }
+
+  @Benchmark
+  @Threads(2)
+  public List<TestSuite> twoThreads() throws XmlParseException {
+    return parse();
+  }
+
+  @Benchmark
+  @Threads(4)
+  public List<TestSuite> fourThreads() throws XmlParseException {
+    return parse();
+  }
+
+  @Benchmark
+  @Threads(Threads.MAX)
+  public List<TestSuite> allThreads() throws XmlParseException {
+    return parse();
+  }
+
+  private List<TestSuite> parse() throws XmlParseException {
+    return parser.parse(new ByteArrayInputStream(report), UTF_8);
+  }
+}
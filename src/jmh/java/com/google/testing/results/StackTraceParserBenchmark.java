@@ -0,0 +1,78 @@
+/*
+ * Copyright 2014 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.testing.results;
+
+import com.google.testing.results.TestSuiteProto.StackTrace;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of splitting a long stack trace into {@code stack_content}, with and without a
+ * {@link StackFrameCache}.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class StackTraceParserBenchmark {
+  /** Characters handed to the parser per call, like a StAX text event. */
+  @Param({"64", "8192"})
+  int chunkSize;
+
+  @Param({"false", "true"})
+  boolean cached;
+
+  private char[] stackTrace;
+  private StackFrameCache frameCache;
+
+  @Setup
+  public void setUp() {
+    StringBuilder text = new StringBuilder("java.lang.AssertionError: expected:<1> but was:<2>\n");
+    for (int i = 0; i < 200; i++) {
+      text.append("\tat org.junit.runners.ParentRunner$3.run(ParentRunner.java:")
+          .append(230 + i % 10).append(")\n");
+      text.append("\tat sun.reflect.NativeMethodAccessorImpl.invoke0(Native Method)\n");
+    }
+    stackTrace = text.toString().toCharArray();
+    frameCache = cached ? new StackFrameCache() : null;
+  }
+
+  @Benchmark
+  public StackTrace.Builder parse() throws Exception {
+    StackTrace.Builder builder = StackTrace.newBuilder();
+    StackTraceParser parser = new StackTraceParser(builder, true, frameCache);
+    for (int start = 0; start < stackTrace.length; start += chunkSize) {
+      parser.append(stackTrace, start, Math.min(chunkSize, stackTrace.length - start));
+    }
+    parser.finish();
+    return builder;
+  }
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright 2014 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.testing.results;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.testing.results.TestSuiteProto.TestSuite;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import javax.xml.stream.XMLStreamException;
+
+/**
+ * Parsing reports dominated by {@code <system-out>} and {@code <system-err>}, with the output
+ * skipped at the byte level or read through the XML reader. The {@code bytes} counter is the
+ * input consumed per second.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SystemOutputSkippingBenchmark {
+  @Param({"true", "false"})
+  boolean fastSkipOutput;
+
+  private byte[] report;
+  private AntXmlParser parser;
+
+  /** Counts the bytes parsed, reported by JMH as a rate. */
+  @AuxCounters(AuxCounters.Type.OPERATIONS)
+  @State(Scope.Thread)
+  public static class Bytes {
+    public long bytes;
+  }
+
+  @Setup
+  public void setUp() throws XMLStreamException {
+    report = BenchmarkReports.Shape.OUTPUT_HEAVY.bytes();
+    parser = AntXmlParser.newBuilder().setFastSkipOutput(fastSkipOutput).build();
+  }
+
+  @Benchmark
+  public List<TestSuite> parse(Bytes counter) throws XmlParseException {
+    counter.bytes += report.length;
+    return parser.parse(new ByteArrayInputStream(report), UTF_8);
+  }
+}
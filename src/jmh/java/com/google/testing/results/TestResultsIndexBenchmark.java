@@ -0,0 +1,148 @@
+/*
+ * Copyright 2014 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.testing.results;
+
+import com.google.testing.results.TestResultsProto.TestResults;
+import com.google.testing.results.TestSuiteProto.TestCase;
+import com.google.testing.results.TestSuiteProto.TestStatus;
+import com.google.testing.results.TestSuiteProto.TestSuite;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares {@link TestResultsIndex} queries with iterating over the suites of results with
+ * millions of test cases: the first page of ERROR tests in one package, in input order and
+ * slowest first.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class TestResultsIndexBenchmark {
+  private static final String[] PACKAGES = {
+      "com.google.common.collect", "com.google.testing.results", "org.example.app.service",
+      "org.example.app.storage", "org.example.app.web", "io.example.util"};
+  private static final String PREFIX = "org.example.app.web.";
+  private static final int PAGE_SIZE = 50;
+  private static final Comparator<TestCase> SLOWEST_FIRST = new Comparator<TestCase>() {
+    @Override
+    public int compare(TestCase a, TestCase b) {
+      return Long.compare(b.getElapsedTimeMillis(), a.getElapsedTimeMillis());
+    }
+  };
+
+  @Param({"100000", "1000000"})
+  int testCases;
+
+  private TestResults results;
+  private TestResultsIndex index;
+  private TestResultsIndex.Query inputOrder;
+  private TestResultsIndex.Query durationOrder;
+
+  @Setup
+  public void setUp() {
+    Random random = new Random(42);
+    TestResults.Builder builder = TestResults.newBuilder();
+    for (int suite = 0; suite < testCases / 100; suite++) {
+      String className = PACKAGES[random.nextInt(PACKAGES.length)] + ".Generated" + suite + "Test";
+      TestSuite.Builder testSuite = builder.addTestSuiteBuilder().setName(className);
+      for (int test = 0; test < 100; test++) {
+        double roll = random.nextDouble();
+        testSuite.addTestCase(TestCase.newBuilder()
+            .setClassName(className)
+            .setName("test" + test)
+            .setStatus(roll < 0.01 ? TestStatus.ERROR
+                : roll < 0.05 ? TestStatus.FAILED : TestStatus.PASSED)
+            .setElapsedTimeMillis(random.nextInt(2000)));
+      }
+    }
+    results = builder.build();
+    index = new TestResultsIndex(results);
+    TestResultsIndex.Query.Builder query = TestResultsIndex.newQueryBuilder()
+        .setClassPrefix(PREFIX)
+        .setStatuses(TestStatus.ERROR)
+        .setLimit(PAGE_SIZE);
+    inputOrder = query.build();
+    durationOrder = query.setOrder(TestResultsIndex.Order.DURATION).build();
+  }
+
+  @Benchmark
+  public List<TestCase> indexedInputOrder() {
+    return index.query(inputOrder);
+  }
+
+  @Benchmark
+  public List<TestCase> indexedDurationOrder() {
+    return index.query(durationOrder);
+  }
+
+  @Benchmark
+  public List<TestCase> naiveInputOrder() {
+    List<TestCase> page = new ArrayList<>();
+    for (TestSuite testSuite : results.getTestSuiteList()) {
+      for (TestCase testCase : testSuite.getTestCaseList()) {
+        if (testCase.getStatus() == TestStatus.ERROR
+            && testCase.getClassName().startsWith(PREFIX)) {
+          page.add(testCase);
+          if (page.size() == PAGE_SIZE) {
+            return page;
+          }
+        }
+      }
+    }
+    return page;
+  }
+
+  @Benchmark
+  public List<TestCase> naiveDurationOrder() {
+    List<TestCase> matches = new ArrayList<>();
+    for (TestSuite testSuite : results.getTestSuiteList()) {
+      for (TestCase testCase : testSuite.getTestCaseList()) {
+        if (testCase.getStatus() == TestStatus.ERROR
+            && testCase.getClassName().startsWith(PREFIX)) {
+          matches.add(testCase);
+        }
+      }
+    }
+    Collections.sort(matches, SLOWEST_FIRST);
+    return matches.subList(0, Math.min(PAGE_SIZE, matches.size()));
+  }
+
+  @Benchmark
+  public TestResultsIndex buildIndex() {
+    return new TestResultsIndex(results);
+  }
+}
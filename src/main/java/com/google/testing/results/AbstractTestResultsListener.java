@@ -0,0 +1,46 @@
+/*
+ * Copyright 2014 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.testing.results;
+
+import com.google.testing.results.TestSuiteProto.CapturedOutput;
+import com.google.testing.results.TestSuiteProto.Property;
+import com.google.testing.results.TestSuiteProto.TestCase;
+import com.google.testing.results.TestSuiteProto.TestSuite;
+
+/**
+ * A {@link TestResultsListener} that ignores every event. Listeners that extend it only override
+ * the events they need, and keep compiling when events are added to the interface.
+ */
+public abstract class AbstractTestResultsListener implements TestResultsListener {
+  @Override
+  public void onSuiteStart(TestSuite suite) {}
+
+  @Override
+  public void onProperty(Property property) {}
+
+  @Override
+  public void onTestCase(TestCase testCase) {}
+
+  @Override
+  public void onSystemOut(CapturedOutput output) {}
+
+  @Override
+  public void onSystemErr(CapturedOutput output) {}
+
+  @Override
+  public void onSuiteEnd() {}
+}
@@ -0,0 +1,424 @@
+/*
+ * Copyright 2014 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.testing.results;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Locale;
+import java.util.Random;
+
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+
+/**
+ * Generates synthetic reports in the Ant (Junit task) XML format, for load and scale testing of
+ * {@link AntXmlParser} and {@link DirectoryBasedOutputsCollector}.
+ *
+ * <p>Output is written as it is generated, so files of any size can be produced in constant
+ * memory. The same options and seed always produce the same bytes.
+ */
+public class AntXmlGenerator {
+  private static final String[] PACKAGES = {
+      "com.google.common.collect", "com.google.testing.results", "org.example.app.service",
+      "org.example.app.storage", "org.example.app.web", "io.example.util"};
+  private static final String[] FRAMEWORK_FRAMES = {
+      "\tat org.junit.Assert.fail(Assert.java:88)",
+      "\tat org.junit.Assert.assertEquals(Assert.java:118)",
+      "\tat sun.reflect.NativeMethodAccessorImpl.invoke0(Native Method)",
+      "\tat sun.reflect.NativeMethodAccessorImpl.invoke(NativeMethodAccessorImpl.java:62)",
+      "\tat java.lang.reflect.Method.invoke(Method.java:498)",
+      "\tat org.junit.runners.model.FrameworkMethod$1.runReflectiveCall(FrameworkMethod.java:50)",
+      "\tat org.junit.runners.ParentRunner$3.run(ParentRunner.java:290)",
+      "\tat org.junit.runners.ParentRunner.runChildren(ParentRunner.java:288)"};
+  private static final String OUTPUT_LINE =
+      "INFO  [main] org.example.app.Server - handled request in 12 ms\n";
+
+  private final XMLOutputFactory xmlOutputFactory = XMLOutputFactory.newInstance();
+
+  private final long seed;
+  private final int suiteCount;
+  private final int testsPerSuite;
+  private final double failureRatio;
+  private final double errorRatio;
+  private final double skippedRatio;
+  private final int stackDepth;
+  private final int propertyCount;
+  private final long systemOutBytes;
+  private final long systemErrBytes;
+
+  private AntXmlGenerator(Builder builder) {
+    this.seed = builder.seed;
+    this.suiteCount = builder.suiteCount;
+    this.testsPerSuite = builder.testsPerSuite;
+    this.failureRatio = builder.failureRatio;
+    this.errorRatio = builder.errorRatio;
+    this.skippedRatio = builder.skippedRatio;
+    this.stackDepth = builder.stackDepth;
+    this.propertyCount = builder.propertyCount;
+    this.systemOutBytes = builder.systemOutBytes;
+    this.systemErrBytes = builder.systemErrBytes;
+  }
+
+  public static Builder newBuilder() {
+    return new Builder();
+  }
+
+  /** Options for an {@link AntXmlGenerator}. */
+  public static final class Builder {
+    private long seed;
+    private int suiteCount = 1;
+    private int testsPerSuite = 10;
+    private double failureRatio;
+    private double errorRatio;
+    private double skippedRatio;
+    private int stackDepth = 20;
+    private int propertyCount;
+    private long systemOutBytes;
+    private long systemErrBytes;
+
+    private Builder() {}
+
+    public Builder setSeed(long seed) {
+      this.seed = seed;
+      return this;
+    }
+
+    /**
+     * Number of {@code <testsuite>} elements per file. More than one wraps them in a
+     * {@code <testsuites>} element.
+     */
+    public Builder setSuiteCount(int suiteCount) {
+      checkArgument(suiteCount > 0, "suiteCount must be positive: %s", suiteCount);
+      this.suiteCount = suiteCount;
+      return this;
+    }
+
+    public Builder setTestsPerSuite(int testsPerSuite) {
+      checkArgument(testsPerSuite >= 0, "testsPerSuite must not be negative: %s", testsPerSuite);
+      this.testsPerSuite = testsPerSuite;
+      return this;
+    }
+
+    /** Fraction of test cases with a {@code <failure>}. */
+    public Builder setFailureRatio(double failureRatio) {
+      this.failureRatio = checkRatio(failureRatio);
+      return this;
+    }
+
+    /** Fraction of test cases with an {@code <error>}. */
+    public Builder setErrorRatio(double errorRatio) {
+      this.errorRatio = checkRatio(errorRatio);
+      return this;
+    }
+
+    /** Fraction of test cases that are {@code <skipped>}. */
+    public Builder setSkippedRatio(double skippedRatio) {
+      this.skippedRatio = checkRatio(skippedRatio);
+      return this;
+    }
+
+    /** Number of {@code at} frames in each failure and error. */
+    public Builder setStackDepth(int stackDepth) {
+      checkArgument(stackDepth >= 0, "stackDepth must not be negative: %s", stackDepth);
+      this.stackDepth = stackDepth;
+      return this;
+    }
+
+    /** Number of {@code <property>} elements per suite. */
+    public Builder setPropertyCount(int propertyCount) {
+      checkArgument(propertyCount >= 0, "propertyCount must not be negative: %s", propertyCount);
+      this.propertyCount = propertyCount;
+      return this;
+    }
+
+    /** Approximate size of the {@code <system-out>} of each suite, 0 to omit it. */
+    public Builder setSystemOutBytes(long systemOutBytes) {
+      checkArgument(systemOutBytes >= 0, "systemOutBytes must not be negative: %s",
+          systemOutBytes);
+      this.systemOutBytes = systemOutBytes;
+      return this;
+    }
+
+    /** Approximate size of the {@code <system-err>} of each suite, 0 to omit it. */
+    public Builder setSystemErrBytes(long systemErrBytes) {
+      checkArgument(systemErrBytes >= 0, "systemErrBytes must not be negative: %s",
+          systemErrBytes);
+      this.systemErrBytes = systemErrBytes;
+      return this;
+    }
+
+    public AntXmlGenerator build() {
+      checkArgument(failureRatio + errorRatio + skippedRatio <= 1,
+          "failure, error and skipped ratios add up to more than 1");
+      return new AntXmlGenerator(this);
+    }
+
+    private static double checkRatio(double ratio) {
+      checkArgument(ratio >= 0 && ratio <= 1, "ratio must be between 0 and 1: %s", ratio);
+      return ratio;
+    }
+  }
+
+  public static void main(String[] args) throws IOException, XMLStreamException {
+    if (args.length < 1) {
+      System.err.println("Usage: java AntXmlGenerator path/to/output(.xml|/) [--option=value...]");
+      System.err.println("Options: seed, suites, tests, failures, errors, skipped, stack-depth,");
+      System.err.println("         properties, system-out, system-err, modules, files-per-module");
+      System.exit(1);
+    }
+    Builder builder = newBuilder();
+    int modules = 0;
+    int filesPerModule = 1;
+    for (int i = 1; i < args.length; i++) {
+      String[] option = args[i].replaceFirst("^--", "").split("=", 2);
+      checkArgument(option.length == 2, "Expected --option=value: %s", args[i]);
+      switch (option[0]) {
+        case "seed":
+          builder.setSeed(Long.parseLong(option[1]));
+          break;
+        case "suites":
+          builder.setSuiteCount(Integer.parseInt(option[1]));
+          break;
+        case "tests":
+          builder.setTestsPerSuite(Integer.parseInt(option[1]));
+          break;
+        case "failures":
+          builder.setFailureRatio(Double.parseDouble(option[1]));
+          break;
+        case "errors":
+          builder.setErrorRatio(Double.parseDouble(option[1]));
+          break;
+        case "skipped":
+          builder.setSkippedRatio(Double.parseDouble(option[1]));
+          break;
+        case "stack-depth":
+          builder.setStackDepth(Integer.parseInt(option[1]));
+          break;
+        case "properties":
+          builder.setPropertyCount(Integer.parseInt(option[1]));
+          break;
+        case "system-out":
+          builder.setSystemOutBytes(Long.parseLong(option[1]));
+          break;
+        case "system-err":
+          builder.setSystemErrBytes(Long.parseLong(option[1]));
+          break;
+        case "modules":
+          modules = Integer.parseInt(option[1]);
+          break;
+        case "files-per-module":
+          filesPerModule = Integer.parseInt(option[1]);
+          break;
+        default:
+          throw new IllegalArgumentException("Unknown option: " + args[i]);
+      }
+    }
+    Path output = Paths.get(args[0]);
+    if (modules > 0) {
+      builder.build().generateTree(output, modules, filesPerModule);
+    } else {
+      builder.build().generate(output);
+    }
+  }
+
+  /** Writes one report to {@code file}. */
+  public void generate(Path file) throws IOException, XMLStreamException {
+    try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(file))) {
+      generate(out, seed);
+    }
+  }
+
+  /** Writes one report to {@code out}, which is left open. */
+  public void generate(OutputStream out) throws XMLStreamException {
+    generate(out, seed);
+  }
+
+  /**
+   * Writes {@code modules * filesPerModule} reports under {@code root}, laid out like a Gradle
+   * multi-project CI workspace ({@code moduleN/build/test-results/test/TEST-*.xml}) next to a
+   * {@code build-log.txt}. Every file uses a different seed derived from the configured one.
+   */
+  public void generateTree(Path root, int modules, int filesPerModule)
+      throws IOException, XMLStreamException {
+    Files.createDirectories(root);
+    Files.write(root.resolve("build-log.txt"), "Started\n".getBytes(UTF_8));
+    for (int module = 0; module < modules; module++) {
+      Path reports = Files.createDirectories(
+          root.resolve("module" + module).resolve("build/test-results/test"));
+      for (int file = 0; file < filesPerModule; file++) {
+        Path report = reports.resolve("TEST-org.example.Module" + module + "Test" + file + ".xml");
+        try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(report))) {
+          generate(out, seed + (long) module * filesPerModule + file);
+        }
+      }
+    }
+  }
+
+  private void generate(OutputStream out, long fileSeed) throws XMLStreamException {
+    Random random = new Random(fileSeed);
+    XMLStreamWriter writer = xmlOutputFactory.createXMLStreamWriter(out, UTF_8.name());
+    writer.writeStartDocument(UTF_8.name(), "1.0");
+    writer.writeCharacters("\n");
+    if (suiteCount > 1) {
+      writer.writeStartElement("testsuites");
+      writer.writeCharacters("\n");
+    }
+    for (int suite = 0; suite < suiteCount; suite++) {
+      writeSuite(writer, random, suite);
+    }
+    if (suiteCount > 1) {
+      writer.writeEndElement();
+      writer.writeCharacters("\n");
+    }
+    writer.writeEndDocument();
+    writer.flush();
+    writer.close();
+  }
+
+  private void writeSuite(XMLStreamWriter writer, Random random, int suite)
+      throws XMLStreamException {
+    String className = PACKAGES[random.nextInt(PACKAGES.length)] + ".Generated" + suite + "Test";
+    // Suite attributes carry the totals, so outcomes are decided before anything is written.
+    char[] outcomes = new char[testsPerSuite];
+    int[] elapsedMillis = new int[testsPerSuite];
+    int failures = 0;
+    int errors = 0;
+    int skipped = 0;
+    long suiteMillis = 0;
+    for (int test = 0; test < testsPerSuite; test++) {
+      double roll = random.nextDouble();
+      if (roll < failureRatio) {
+        outcomes[test] = 'F';
+        failures++;
+      } else if (roll < failureRatio + errorRatio) {
+        outcomes[test] = 'E';
+        errors++;
+      } else if (roll < failureRatio + errorRatio + skippedRatio) {
+        outcomes[test] = 'S';
+        skipped++;
+      } else {
+        outcomes[test] = 'P';
+      }
+      elapsedMillis[test] = random.nextInt(2000);
+      suiteMillis += elapsedMillis[test];
+    }
+
+    writer.writeStartElement("testsuite");
+    writer.writeAttribute("failures", Integer.toString(failures));
+    writer.writeAttribute("time", seconds(suiteMillis));
+    writer.writeAttribute("errors", Integer.toString(errors));
+    writer.writeAttribute("skipped", Integer.toString(skipped));
+    writer.writeAttribute("tests", Integer.toString(testsPerSuite));
+    writer.writeAttribute("name", className);
+    writer.writeCharacters("\n");
+
+    if (propertyCount > 0) {
+      writer.writeStartElement("properties");
+      for (int property = 0; property < propertyCount; property++) {
+        writer.writeEmptyElement("property");
+        writer.writeAttribute("name", "generated.property." + property);
+        writer.writeAttribute("value", "value-" + property);
+      }
+      writer.writeEndElement();
+      writer.writeCharacters("\n");
+    }
+
+    for (int test = 0; test < testsPerSuite; test++) {
+      writeTestCase(writer, random, className, test, outcomes[test], elapsedMillis[test]);
+    }
+
+    writeOutput(writer, "system-out", systemOutBytes);
+    writeOutput(writer, "system-err", systemErrBytes);
+    writer.writeEndElement();
+    writer.writeCharacters("\n");
+  }
+
+  private void writeTestCase(XMLStreamWriter writer, Random random, String className, int test,
+      char outcome, int elapsedMillis) throws XMLStreamException {
+    if (outcome == 'P') {
+      writer.writeEmptyElement("testcase");
+    } else {
+      writer.writeStartElement("testcase");
+    }
+    writer.writeAttribute("time", seconds(elapsedMillis));
+    writer.writeAttribute("classname", className);
+    writer.writeAttribute("name", "test" + test);
+    switch (outcome) {
+      case 'F':
+        writeStackTrace(writer, random, "failure", "java.lang.AssertionError",
+            "expected:<" + test + "> but was:<" + (test + 1) + ">", className, test);
+        break;
+      case 'E':
+        writeStackTrace(writer, random, "error", "java.lang.IllegalStateException",
+            "fixture not initialized", className, test);
+        break;
+      case 'S':
+        writer.writeStartElement("skipped");
+        writer.writeCharacters("Ignored by generator");
+        writer.writeEndElement();
+        break;
+    }
+    if (outcome != 'P') {
+      writer.writeEndElement();
+    }
+    writer.writeCharacters("\n");
+  }
+
+  private void writeStackTrace(XMLStreamWriter writer, Random random, String element,
+      String type, String message, String className, int test) throws XMLStreamException {
+    writer.writeStartElement(element);
+    writer.writeAttribute("message", message);
+    writer.writeAttribute("type", type);
+    StringBuilder trace = new StringBuilder(type).append(": ").append(message).append('\n');
+    String simpleName = className.substring(className.lastIndexOf('.') + 1);
+    if (stackDepth > 0) {
+      trace.append("\tat ").append(className).append(".test").append(test).append('(')
+          .append(simpleName).append(".java:").append(10 + random.nextInt(500)).append(")\n");
+    }
+    for (int frame = 1; frame < stackDepth; frame++) {
+      trace.append(FRAMEWORK_FRAMES[random.nextInt(FRAMEWORK_FRAMES.length)]).append('\n');
+    }
+    writer.writeCharacters(trace.toString());
+    writer.writeEndElement();
+  }
+
+  private static void writeOutput(XMLStreamWriter writer, String element, long bytes)
+      throws XMLStreamException {
+    if (bytes == 0) {
+      return;
+    }
+    writer.writeStartElement(element);
+    char[] line = OUTPUT_LINE.toCharArray();
+    for (long written = 0; written < bytes; written += line.length) {
+      writer.writeCharacters(line, 0, (int) Math.min(line.length, bytes - written));
+    }
+    writer.writeEndElement();
+    writer.writeCharacters("\n");
+  }
+
+  private static String seconds(long millis) {
+    return String.format(Locale.ROOT, "%d.%03d", millis / 1000, millis % 1000);
+  }
+}
@@ -16,23 +16,33 @@
 
 package com.google.testing.results;
 
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+import static java.nio.charset.StandardCharsets.ISO_8859_1;
+import static java.nio.charset.StandardCharsets.US_ASCII;
 import static java.nio.charset.StandardCharsets.UTF_8;
 
 import com.google.common.collect.ImmutableList;
 import com.google.protobuf.TextFormat;
-import com.google.testing.results.TestSuiteProto.Property.Builder;
+import com.google.testing.results.TestSuiteProto.CapturedOutput;
+import com.google.testing.results.TestSuiteProto.Property;
 import com.google.testing.results.TestSuiteProto.StackTrace;
 import com.google.testing.results.TestSuiteProto.TestCase;
 import com.google.testing.results.TestSuiteProto.TestStatus;
 import com.google.testing.results.TestSuiteProto.TestSuite;
 
-import java.io.BufferedReader;
-import java.io.File;
-import java.io.FileInputStream;
+import java.io.BufferedInputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.StringReader;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
 import java.nio.charset.Charset;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
 
 import javax.xml.stream.XMLInputFactory;
 import javax.xml.stream.XMLStreamConstants;
@@ -41,30 +51,284 @@ import javax.xml.stream.XMLStreamReader;
 
 /**
  * STaX parser for the Ant (Junit task) XML test results format.
+ *
+ * <p>Parsers are immutable once built and safe to share between threads: each thread gets its
+ * own {@link XMLInputFactory} and its own scratch buffers, which are reused by the reports it
+ * parses. A single parser is enough for a whole service.
+ *
  * @author alexeagle@google.com (Alex Eagle)
  * @author pepstein@google.com (Peter Epstein)
  */
 public class AntXmlParser {
-  private static final String JAVA_STACK_FRAME_PREFIX = "\tat ";
+  /**
+   * Default size from which {@link #parse(FileChannel, Charset, TestResultsListener)} maps,
+   * which turns mapping off: it showed no clear win over buffered reads in FileReadBenchmark.
+   */
+  public static final long DEFAULT_MEMORY_MAP_THRESHOLD = Long.MAX_VALUE;
+  private static final int CHANNEL_BUFFER_SIZE = 64 * 1024;
+  private static final String IGNORE_EXTERNAL_DTD =
+      "http://java.sun.com/xml/stream/properties/ignore-external-dtd";
+  private static final String JDK_XML_INPUT_FACTORY =
+      "com.sun.xml.internal.stream.XMLInputFactoryImpl";
+  /** Default number of characters of each captured output kept in memory. */
+  public static final int DEFAULT_OUTPUT_BUDGET = 64 * 1024;
+  /** Scratch buffers that grew beyond this many characters are not kept for the next report. */
+  private static final int MAX_RETAINED_SCRATCH = 64 * 1024;
 
-  XMLInputFactory xmlInputFactory = createFactory();
+  /** Which part of a captured output is kept when it does not fit the budget. */
+  public enum OutputTruncation {
+    /** The beginning. */
+    HEAD,
+    /** The end. */
+    TAIL,
+    /** Half the budget from the beginning and half from the end. */
+    HEAD_AND_TAIL,
+  }
+
+  private final boolean retainStackTraceContent;
+  private final boolean structureStackTraces;
+  private final StackFrameCache stackFrameCache;
+  private final long memoryMapThreshold;
+  private final boolean fastSkipOutput;
+  private final boolean captureOutput;
+  private final int outputBudget;
+  private final OutputTruncation outputTruncation;
+  private final Path outputSpillDirectory;
+  private final StringPool stringPool;
+  private final PropertySetCache propertySetCache;
+  private final ParseMetrics metrics;
+
+  // XMLInputFactory is not guaranteed to be thread-safe.
+  private final ThreadLocal<XMLInputFactory> xmlInputFactories =
+      new ThreadLocal<XMLInputFactory>() {
+        @Override
+        protected XMLInputFactory initialValue() {
+          return createFactory();
+        }
+      };
+  private final ThreadLocal<Scratch> scratches = new ThreadLocal<Scratch>() {
+    @Override
+    protected Scratch initialValue() {
+      return new Scratch();
+    }
+  };
+
+  /** Creates a parser with the default options. */
+  public AntXmlParser() {
+    this(newBuilder());
+  }
+
+  private AntXmlParser(Builder builder) {
+    this.retainStackTraceContent = builder.retainStackTraceContent;
+    this.structureStackTraces = builder.structureStackTraces;
+    this.stackFrameCache = builder.stackFrameCache;
+    this.memoryMapThreshold = builder.memoryMapThreshold;
+    this.fastSkipOutput = builder.fastSkipOutput;
+    this.captureOutput = builder.captureOutput;
+    this.outputBudget = builder.outputBudget;
+    this.outputTruncation = builder.outputTruncation;
+    this.outputSpillDirectory = builder.outputSpillDirectory;
+    this.stringPool = builder.stringPool;
+    this.propertySetCache = builder.propertySetCache;
+    this.metrics = builder.metrics;
+  }
+
+  public static Builder newBuilder() {
+    return new Builder();
+  }
+
+  /** Options for an {@link AntXmlParser}. */
+  public static final class Builder {
+    private boolean retainStackTraceContent = true;
+    private boolean structureStackTraces = true;
+    private StackFrameCache stackFrameCache;
+    private long memoryMapThreshold = DEFAULT_MEMORY_MAP_THRESHOLD;
+    private boolean fastSkipOutput = true;
+    private boolean captureOutput;
+    private int outputBudget = DEFAULT_OUTPUT_BUDGET;
+    private OutputTruncation outputTruncation = OutputTruncation.HEAD_AND_TAIL;
+    private Path outputSpillDirectory;
+    private StringPool stringPool;
+    private PropertySetCache propertySetCache;
+    private ParseMetrics metrics = ParseMetrics.NO_OP;
+
+    private Builder() {}
+
+    /**
+     * Whether the raw text of each failure and error is kept in {@code StackTrace.content}, in
+     * addition to the structured {@code stack_content}. Defaults to {@code true}; turning it off
+     * avoids holding a copy of every stack trace when only {@code stack_content} is used.
+     */
+    public Builder setRetainStackTraceContent(boolean retainStackTraceContent) {
+      this.retainStackTraceContent = retainStackTraceContent;
+      return this;
+    }
+
+    /**
+     * Whether failures and errors are split into {@code stack_content} while parsing. Defaults
+     * to {@code true}. Consumers that rarely look at stack frames can turn this off and wrap the
+     * traces they need in a {@link StackTraceView}, which structures them on first access.
+     */
+    public Builder setStructureStackTraces(boolean structureStackTraces) {
+      this.structureStackTraces = structureStackTraces;
+      return this;
+    }
+
+    /**
+     * Cache used to look up stack frames instead of parsing them again. The cache is
+     * thread-safe and may be shared by any number of parsers. By default no cache is used.
+     */
+    public Builder setStackFrameCache(StackFrameCache stackFrameCache) {
+      this.stackFrameCache = stackFrameCache;
+      return this;
+    }
+
+    /**
+     * Files and channels with at least this many bytes left to read are read through memory
+     * mappings rather than buffered reads. Defaults to {@link #DEFAULT_MEMORY_MAP_THRESHOLD},
+     * which disables memory mapping.
+     */
+    public Builder setMemoryMapThreshold(long memoryMapThreshold) {
+      this.memoryMapThreshold = memoryMapThreshold;
+      return this;
+    }
+
+    /**
+     * Whether the contents of {@code <system-out>} and {@code <system-err>} are skipped at the
+     * byte level, without being decoded, when the input is UTF-8, US-ASCII or ISO-8859-1.
+     * Defaults to {@code true}, and has no effect when output is captured. With this turned off
+     * the output is run through the XML reader, which also checks that it is well-formed.
+     */
+    public Builder setFastSkipOutput(boolean fastSkipOutput) {
+      this.fastSkipOutput = fastSkipOutput;
+      return this;
+    }
+
+    /**
+     * Whether {@code <system-out>} and {@code <system-err>} are captured into the
+     * {@code system_out} and {@code system_err} fields of test cases and suites. Defaults to
+     * {@code false}, in which case they are skipped.
+     */
+    public Builder setCaptureOutput(boolean captureOutput) {
+      this.captureOutput = captureOutput;
+      return this;
+    }
 
-  private XMLInputFactory createFactory() {
-    XMLInputFactory factory = XMLInputFactory.newInstance();
+    /**
+     * Number of characters of each captured output kept in memory and in the result. Longer
+     * output is truncated according to {@link #setOutputTruncation}. Defaults to
+     * {@link #DEFAULT_OUTPUT_BUDGET}.
+     */
+    public Builder setOutputBudget(int outputBudget) {
+      checkArgument(outputBudget >= 0, "outputBudget must not be negative: %s", outputBudget);
+      this.outputBudget = outputBudget;
+      return this;
+    }
+
+    /** Which part of an output over budget is kept. Defaults to {@code HEAD_AND_TAIL}. */
+    public Builder setOutputTruncation(OutputTruncation outputTruncation) {
+      this.outputTruncation = checkNotNull(outputTruncation);
+      return this;
+    }
+
+    /**
+     * Directory in which the full text of outputs over budget is saved, so that nothing is lost
+     * to truncation. Each parsed report that needs it gets its own file, which the caller is
+     * responsible for deleting. By default the full text is not saved.
+     */
+    public Builder setOutputSpillDirectory(Path outputSpillDirectory) {
+      this.outputSpillDirectory = outputSpillDirectory;
+      return this;
+    }
+
+    /**
+     * Pool that class names, exception types, source paths and property names are taken from,
+     * so that equal strings are stored once. The pool is thread-safe and may be shared by any
+     * number of parsers. By default no pool is used.
+     */
+    public Builder setStringPool(StringPool stringPool) {
+      this.stringPool = stringPool;
+      return this;
+    }
+
+    /**
+     * Cache of {@code <properties>} blocks. Blocks found in the cache are reported as the cached
+     * {@link Property} messages, without building new ones. The cache is thread-safe and may be
+     * shared by any number of parsers. By default no cache is used.
+     */
+    public Builder setPropertySetCache(PropertySetCache propertySetCache) {
+      this.propertySetCache = propertySetCache;
+      return this;
+    }
+
+    /**
+     * Metrics told how many bytes of {@code <system-out>} and {@code <system-err>} were skipped
+     * in each report. Defaults to {@link ParseMetrics#NO_OP}.
+     */
+    public Builder setMetrics(ParseMetrics metrics) {
+      this.metrics = checkNotNull(metrics);
+      return this;
+    }
+
+    public AntXmlParser build() {
+      checkState(retainStackTraceContent || structureStackTraces,
+          "Stack traces must be either retained or structured");
+      return new AntXmlParser(this);
+    }
+  }
+
+  private static XMLInputFactory createFactory() {
+    return configure(newJdkFactory());
+  }
+
+  /** Turns off external entities and DTDs, as far as {@code factory} supports it. */
+  static XMLInputFactory configure(XMLInputFactory factory) {
     // Prevent XXE (Xml eXternal Entity) attacks
     factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
-    factory.setProperty("http://java.sun.com/xml/stream/properties/ignore-external-dtd", true);
+    if (factory.isPropertySupported(IGNORE_EXTERNAL_DTD)) {
+      factory.setProperty(IGNORE_EXTERNAL_DTD, true);
+    }
     return factory;
   }
 
+  /**
+   * Returns the JDK's own StAX implementation even if another one, such as Aalto for
+   * {@link AsyncAntXmlParser}, is on the class path and registered as the StAX provider.
+   */
+  private static XMLInputFactory newJdkFactory() {
+    try {
+      // Java 9 and later.
+      return (XMLInputFactory) XMLInputFactory.class.getMethod("newDefaultFactory").invoke(null);
+    } catch (NoSuchMethodException e) {
+      return newLegacyJdkFactory();
+    } catch (ReflectiveOperationException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  /**
+   * Returns the JDK's StAX implementation on Java 7 and 8, where it is not exported by a module.
+   * Falls back to the registered provider on JVMs that do not have it.
+   */
+  static XMLInputFactory newLegacyJdkFactory() {
+    try {
+      return (XMLInputFactory) Class.forName(JDK_XML_INPUT_FACTORY).newInstance();
+    } catch (ReflectiveOperationException | LinkageError e) {
+      return XMLInputFactory.newInstance();
+    }
+  }
+
+  private static boolean isAsciiCompatible(Charset encoding) {
+    return encoding.equals(UTF_8) || encoding.equals(US_ASCII) || encoding.equals(ISO_8859_1);
+  }
+
   public static void main(String[] args) throws IOException, XmlParseException {
     if (args.length != 1) {
       System.err.println("Usage: java AntXmlParser path/to/results.xml");
       System.exit(1);
     }
     String path = args[0];
-    ImmutableList<TestSuite> testSuites = new AntXmlParser()
-        .parse(new FileInputStream(path), UTF_8);
+    ImmutableList<TestSuite> testSuites = new AntXmlParser().parse(Paths.get(path), UTF_8);
     for (TestSuite testSuite : testSuites) {
       TextFormat.print(testSuite, System.out);
     }
@@ -75,8 +339,80 @@ public class AntXmlParser {
    */
   public ImmutableList<TestSuite> parse(InputStream in, Charset encoding)
       throws XmlParseException {
+    TestSuiteCollector collector = new TestSuiteCollector();
+    parse(in, encoding, collector);
+    return collector.getTestSuites();
+  }
+
+  /**
+   * Returns the list of {@link TestSuite} objects parsed from the Ant XML format file at
+   * {@code path}. The file is always closed before this method returns.
+   */
+  public ImmutableList<TestSuite> parse(Path path, Charset encoding)
+      throws IOException, XmlParseException {
+    TestSuiteCollector collector = new TestSuiteCollector();
+    parse(path, encoding, collector);
+    return collector.getTestSuites();
+  }
+
+  /**
+   * Parses the Ant XML format file at {@code path}, reporting its contents to {@code listener}.
+   * The file is always closed before this method returns.
+   */
+  public void parse(Path path, Charset encoding, TestResultsListener listener)
+      throws IOException, XmlParseException {
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+      parse(channel, encoding, listener);
+    }
+  }
+
+  /**
+   * Parses the Ant XML format contents of {@code channel} from its current position, reporting
+   * them to {@code listener}. Large inputs may be memory-mapped, see
+   * {@link Builder#setMemoryMapThreshold}. The channel is left open, positioned after the bytes
+   * read, which may include bytes read ahead beyond the end of the report.
+   */
+  public void parse(FileChannel channel, Charset encoding, TestResultsListener listener)
+      throws IOException, XmlParseException {
+    MappedInputStream mapped = null;
+    if (channel.size() - channel.position() >= memoryMapThreshold) {
+      mapped = MappedInputStream.open(channel);
+    }
+    if (mapped == null) {
+      // Not closed on purpose: closing a channel stream closes the channel.
+      parse(new BufferedInputStream(Channels.newInputStream(channel), CHANNEL_BUFFER_SIZE),
+          encoding, listener);
+      return;
+    }
+    try {
+      parse(mapped, encoding, listener);
+    } finally {
+      // Moves the channel's position past the mapped bytes read.
+      mapped.close();
+    }
+  }
+
+  /**
+   * Parses the Ant XML format input stream, reporting each suite, property and test case to
+   * {@code listener} as soon as it has been read. Nothing is retained by the parser once an
+   * event has been delivered, so memory use does not grow with the size of the input.
+   */
+  public void parse(InputStream in, Charset encoding, TestResultsListener listener)
+      throws XmlParseException {
+    SystemOutputSkippingInputStream skipping = null;
+    if (fastSkipOutput && !captureOutput && isAsciiCompatible(encoding)) {
+      in = skipping = new SystemOutputSkippingInputStream(in);
+    }
+    OutputSpill spill = newOutputSpill();
+    Scratch scratch = scratches.get();
+    if (scratch.inUse) {
+      // A listener is parsing another report on this thread.
+      scratch = new Scratch();
+    }
+    scratch.inUse = true;
     try {
-      XMLStreamReader xmlStreamReader = xmlInputFactory.createXMLStreamReader(in, encoding.name());
+      XMLStreamReader xmlStreamReader =
+          xmlInputFactories.get().createXMLStreamReader(in, encoding.name());
       try {
         while (xmlStreamReader.hasNext()) {
           int next = xmlStreamReader.next();
@@ -86,13 +422,15 @@ public class AntXmlParser {
           if (!xmlStreamReader.hasName()) {
             continue;
           }
-          String tagName = xmlStreamReader.getName().toString();
+          String tagName = xmlStreamReader.getLocalName();
           if (xmlStreamReader.isStartElement()) {
             switch (tagName) {
               case "testsuites":
-                return parseSuites(xmlStreamReader);
+                parseSuites(xmlStreamReader, listener, spill, scratch);
+                return;
               case "testsuite":
-                return ImmutableList.of(parseSuite(xmlStreamReader));
+                parseSuite(xmlStreamReader, listener, spill, scratch);
+                return;
               default:
                 handleUnsupportedElement("root", tagName);
             }
@@ -100,6 +438,7 @@ public class AntXmlParser {
         }
       } finally {
         xmlStreamReader.close();
+        closeSpill(spill);
       }
     } catch (XMLStreamException e) {
       if (e.getLocation() != null) {
@@ -107,59 +446,48 @@ public class AntXmlParser {
       } else {
         throw new RuntimeException(e);
       }
+    } finally {
+      scratch.release();
+      if (skipping != null && skipping.getSkippedBytes() > 0) {
+        metrics.outputSkipped(skipping.getSkippedBytes());
+      }
     }
     throw new XmlParseException("No testsuites or testsuite element found.");
   }
 
-  private ImmutableList<TestSuite> parseSuites(XMLStreamReader xmlStreamReader)
-      throws XMLStreamException, XmlParseException {
+  /**
+   * Returns a parser for a single report that is fed bytes as they become available, and
+   * reports its contents to {@code listener} as they are completed. Requires Aalto on the class
+   * path.
+   */
+  public AsyncAntXmlParser newAsyncParser(TestResultsListener listener) {
+    return new AsyncAntXmlParser(this, listener);
+  }
+
+  private void parseSuites(XMLStreamReader xmlStreamReader, TestResultsListener listener,
+      OutputSpill spill, Scratch scratch) throws XMLStreamException, XmlParseException {
     String tagName = null;
-    ImmutableList.Builder<TestSuite> testSuites = ImmutableList.builder();
     do {
       xmlStreamReader.next();
       if (!xmlStreamReader.hasName()) {
         continue;
       }
-      tagName = xmlStreamReader.getName().toString();
+      tagName = xmlStreamReader.getLocalName();
       if (xmlStreamReader.isStartElement()) {
         switch (tagName) {
           case "testsuite":
-            testSuites.add(parseSuite(xmlStreamReader));
+            parseSuite(xmlStreamReader, listener, spill, scratch);
             break;
           default:
             handleUnsupportedElement("testsuites", tagName);
         }
       }
     } while (!xmlStreamReader.isEndElement() || !"testsuites".equals(tagName));
-    return testSuites.build();
   }
 
-  private TestSuite parseSuite(XMLStreamReader xmlStreamReader)
-      throws XMLStreamException, XmlParseException {
-    TestSuite.Builder builder = TestSuite.newBuilder();
-    for (int i = 0; i < xmlStreamReader.getAttributeCount(); i++) {
-      String attributeValue = xmlStreamReader.getAttributeValue(i);
-      switch (xmlStreamReader.getAttributeName(i).toString()) {
-        case "name":
-          builder.setName(attributeValue);
-          break;
-        case "tests":
-          builder.setTotalCount(Integer.parseInt(attributeValue));
-          break;
-        case "time":
-          builder.setElapsedTimeMillis((long) (Float.parseFloat(attributeValue) * 1000));
-          break;
-        case "errors":
-          builder.setErrorCount(Integer.parseInt(attributeValue));
-          break;
-        case "failures":
-          builder.setFailureCount(Integer.parseInt(attributeValue));
-          break;
-        case "skipped":
-          builder.setSkippedCount(Integer.parseInt(attributeValue));
-          break;
-      }
-    }
+  private void parseSuite(XMLStreamReader xmlStreamReader, TestResultsListener listener,
+      OutputSpill spill, Scratch scratch) throws XMLStreamException, XmlParseException {
+    listener.onSuiteStart(readSuiteAttributes(xmlStreamReader));
 
     String tagName = null;
     do {
@@ -167,52 +495,58 @@ public class AntXmlParser {
       if (!xmlStreamReader.hasName()) {
         continue;
       }
-      tagName = xmlStreamReader.getName().toString();
+      tagName = xmlStreamReader.getLocalName();
       if (xmlStreamReader.isStartElement()) {
         switch (tagName) {
           case "properties":
-            parseProperties(xmlStreamReader, builder);
+            parseProperties(xmlStreamReader, listener, scratch);
             break;
           case "testcase":
-            parseTestCase(xmlStreamReader, builder);
+            listener.onTestCase(parseTestCase(xmlStreamReader, spill, scratch));
             break;
           case "system-out":
-            skipElement(xmlStreamReader, "system-out");
+            if (captureOutput) {
+              listener.onSystemOut(parseOutput(xmlStreamReader, "system-out", spill));
+            } else {
+              skipElement(xmlStreamReader, "system-out");
+            }
             break;
           case "system-err":
-            skipElement(xmlStreamReader, "system-err");
+            if (captureOutput) {
+              listener.onSystemErr(parseOutput(xmlStreamReader, "system-err", spill));
+            } else {
+              skipElement(xmlStreamReader, "system-err");
+            }
             break;
           default:
             handleUnsupportedElement("testsuite", tagName);
         }
       }
     } while (!xmlStreamReader.isEndElement() || !"testsuite".equals(tagName));
-    return builder.build();
+    listener.onSuiteEnd();
   }
 
-  private void parseProperties(XMLStreamReader xmlStreamReader, TestSuite.Builder suiteBuilder)
-      throws XMLStreamException {
+  private void parseProperties(XMLStreamReader xmlStreamReader, TestResultsListener listener,
+      Scratch scratch) throws XMLStreamException {
+    List<String> namesAndValues = null;
+    if (propertySetCache != null) {
+      namesAndValues = scratch.properties;
+      namesAndValues.clear();
+    }
     String tagName = null;
     do {
       xmlStreamReader.next();
       if (!xmlStreamReader.hasName()) {
         continue;
       }
-      tagName = xmlStreamReader.getName().toString();
+      tagName = xmlStreamReader.getLocalName();
       if (xmlStreamReader.isStartElement()) {
         switch (tagName) {
           case "property":
-            Builder builder = suiteBuilder.addPropertyBuilder();
-            for (int i = 0; i < xmlStreamReader.getAttributeCount(); i++) {
-              String attributeValue = xmlStreamReader.getAttributeValue(i);
-              switch (xmlStreamReader.getAttributeName(i).toString()) {
-                case "name":
-                  builder.setName(attributeValue);
-                  break;
-                case "value":
-                  builder.setValue(attributeValue);
-                  break;
-              }
+            if (namesAndValues == null) {
+              listener.onProperty(readProperty(xmlStreamReader));
+            } else {
+              readProperty(xmlStreamReader, namesAndValues);
             }
             break;
         }
@@ -220,26 +554,16 @@ public class AntXmlParser {
         break;
       }
     } while (!xmlStreamReader.isEndElement() || !"properties".equals(tagName));
-  }
-
-  private void parseTestCase(XMLStreamReader xmlStreamReader, TestSuite.Builder suiteBuilder)
-      throws XMLStreamException, XmlParseException {
-    TestCase.Builder builder = suiteBuilder.addTestCaseBuilder();
-    builder.setStatus(TestStatus.PASSED);
-    for (int i = 0; i < xmlStreamReader.getAttributeCount(); i++) {
-      String attributeValue = xmlStreamReader.getAttributeValue(i);
-      switch (xmlStreamReader.getAttributeName(i).toString()) {
-        case "name":
-          builder.setName(attributeValue);
-          break;
-        case "classname":
-          builder.setClassName(attributeValue);
-          break;
-        case "time":
-          builder.setElapsedTimeMillis((long) (Float.parseFloat(attributeValue) * 1000));
-          break;
+    if (namesAndValues != null) {
+      for (Property property : propertySetCache.get(namesAndValues)) {
+        listener.onProperty(property);
       }
     }
+  }
+
+  private TestCase parseTestCase(XMLStreamReader xmlStreamReader, OutputSpill spill,
+      Scratch scratch) throws XMLStreamException, XmlParseException {
+    TestCase.Builder builder = readTestCaseAttributes(xmlStreamReader);
 
     String tagName = null;
     do {
@@ -247,32 +571,41 @@ public class AntXmlParser {
       if (!xmlStreamReader.hasName()) {
         continue;
       }
-      tagName = xmlStreamReader.getName().toString();
+      tagName = xmlStreamReader.getLocalName();
       if (xmlStreamReader.isStartElement()) {
         switch (tagName) {
           case "failure":
             builder.setStatus(TestStatus.FAILED);
-            parseStackTrace(xmlStreamReader, builder.addFailureBuilder(), "failure");
+            parseStackTrace(xmlStreamReader, builder.addFailureBuilder(), "failure", scratch);
             break;
           case "error":
             builder.setStatus(TestStatus.ERROR);
-            parseStackTrace(xmlStreamReader, builder.getErrorBuilder(), "error");
+            parseStackTrace(xmlStreamReader, builder.getErrorBuilder(), "error", scratch);
             break;
           case "skipped":
             builder.setStatus(TestStatus.SKIPPED);
-            builder.setSkippedMessage(getElementContent(xmlStreamReader, "skipped"));
+            builder.setSkippedMessage(getElementContent(xmlStreamReader, "skipped", scratch));
             break;
           case "system-out":
-            skipElement(xmlStreamReader, "system-out");
+            if (captureOutput) {
+              builder.setSystemOut(parseOutput(xmlStreamReader, "system-out", spill));
+            } else {
+              skipElement(xmlStreamReader, "system-out");
+            }
             break;
           case "system-err":
-            skipElement(xmlStreamReader, "system-err");
+            if (captureOutput) {
+              builder.setSystemErr(parseOutput(xmlStreamReader, "system-err", spill));
+            } else {
+              skipElement(xmlStreamReader, "system-err");
+            }
             break;
           default:
             handleUnsupportedElement("testcase", tagName);
         }
       }
     } while (!xmlStreamReader.isEndElement() || !"testcase".equals(tagName));
+    return builder.build();
   }
 
   private void skipElement(XMLStreamReader xmlStreamReader, String elementName)
@@ -283,7 +616,7 @@ public class AntXmlParser {
       if (!xmlStreamReader.hasName()) {
         continue;
       }
-      tagName = xmlStreamReader.getName().toString();
+      tagName = xmlStreamReader.getLocalName();
     } while (!xmlStreamReader.isEndElement() || !elementName.equals(tagName));
   }
 
@@ -293,108 +626,269 @@ public class AntXmlParser {
         "Element <" + elementName + "> should not contain element <" + childElement + ">.");
   }
 
-  private String getElementContent(XMLStreamReader xmlStreamReader, String elementName)
-      throws XMLStreamException {
+  private String getElementContent(XMLStreamReader xmlStreamReader, String elementName,
+      Scratch scratch) throws XMLStreamException {
     String tagName = null;
-    StringBuilder stringBuilder = new StringBuilder();
+    StringBuilder stringBuilder = scratch.text;
+    stringBuilder.setLength(0);
     do {
       xmlStreamReader.next();
       if (xmlStreamReader.hasName()) {
-        tagName = xmlStreamReader.getName().toString();
-      } else if (xmlStreamReader.isCharacters()) {
-        String text = xmlStreamReader.getText();
-        stringBuilder.append(text);
+        tagName = xmlStreamReader.getLocalName();
+      } else if (isText(xmlStreamReader)) {
+        stringBuilder.append(xmlStreamReader.getTextCharacters(), xmlStreamReader.getTextStart(),
+            xmlStreamReader.getTextLength());
       }
     } while (!xmlStreamReader.isEndElement() || !elementName.equals(tagName));
     return stringBuilder.toString();
   }
 
-  private void parseStackTrace(XMLStreamReader xmlStreamReader,
-      StackTrace.Builder stackTraceBuilder, String elementType) throws XMLStreamException {
+  /** Returns whether the current event is character data, in a CDATA section or not. */
+  private static boolean isText(XMLStreamReader xmlStreamReader) {
+    return xmlStreamReader.isCharacters()
+        || xmlStreamReader.getEventType() == XMLStreamConstants.CDATA;
+  }
+
+  private CapturedOutput parseOutput(XMLStreamReader xmlStreamReader, String elementName,
+      OutputSpill spill) throws XMLStreamException {
+    OutputCapture capture = newOutputCapture(spill);
+    String tagName = null;
+    do {
+      xmlStreamReader.next();
+      if (xmlStreamReader.hasName()) {
+        tagName = xmlStreamReader.getLocalName();
+      } else if (isText(xmlStreamReader)) {
+        capture.append(xmlStreamReader.getTextCharacters(), xmlStreamReader.getTextStart(),
+            xmlStreamReader.getTextLength());
+      }
+    } while (!xmlStreamReader.isEndElement() || !elementName.equals(tagName));
+    return capture.finish();
+  }
+
+  /** Returns whether {@code <system-out>} and {@code <system-err>} are captured. */
+  boolean capturesOutput() {
+    return captureOutput;
+  }
+
+  /** Returns the cache of {@code <properties>} blocks, or {@code null} if there is none. */
+  PropertySetCache getPropertySetCache() {
+    return propertySetCache;
+  }
+
+  /** Returns the spill file for one report, or {@code null} if output is not spilled. */
+  OutputSpill newOutputSpill() {
+    return captureOutput && outputSpillDirectory != null
+        ? new OutputSpill(outputSpillDirectory) : null;
+  }
+
+  OutputCapture newOutputCapture(OutputSpill spill) {
+    return new OutputCapture(outputBudget, outputTruncation, spill);
+  }
+
+  StackTraceParser newStackTraceParser(StackTrace.Builder stackTraceBuilder) {
+    return new StackTraceParser(stackTraceBuilder, structureStackTraces, retainStackTraceContent,
+        stackFrameCache, stringPool, new StringBuilder(), new StringBuilder(),
+        new StringBuilder());
+  }
+
+  /** Returns a suite holding only the attributes of the current {@code <testsuite>}. */
+  TestSuite readSuiteAttributes(XMLStreamReader xmlStreamReader) {
+    TestSuite.Builder builder = TestSuite.newBuilder();
     for (int i = 0; i < xmlStreamReader.getAttributeCount(); i++) {
-      String attributeValue = xmlStreamReader.getAttributeValue(i);
-      switch (xmlStreamReader.getAttributeName(i).toString()) {
-        case "message":
-          stackTraceBuilder.setExceptionMessage(attributeValue);
+      switch (xmlStreamReader.getAttributeLocalName(i)) {
+        case "name":
+          builder.setName(xmlStreamReader.getAttributeValue(i));
           break;
-        case "type":
-          stackTraceBuilder.setExceptionType(attributeValue);
+        case "tests":
+          builder.setTotalCount(Integer.parseInt(xmlStreamReader.getAttributeValue(i)));
+          break;
+        case "time":
+          builder.setElapsedTimeMillis(parseMillis(xmlStreamReader.getAttributeValue(i)));
+          break;
+        case "errors":
+          builder.setErrorCount(Integer.parseInt(xmlStreamReader.getAttributeValue(i)));
+          break;
+        case "failures":
+          builder.setFailureCount(Integer.parseInt(xmlStreamReader.getAttributeValue(i)));
+          break;
+        case "skipped":
+          builder.setSkippedCount(Integer.parseInt(xmlStreamReader.getAttributeValue(i)));
           break;
       }
     }
+    return builder.build();
+  }
 
-    //TODO(pepstein): Avoid holding entire stack trace in memory.
-    String stackTrace = getElementContent(xmlStreamReader, elementType);
-    stackTraceBuilder.setContent(stackTrace);
-
-    BufferedReader reader = new BufferedReader(new StringReader(stackTrace));
-    try {
-      StringBuilder textBuilder = new StringBuilder();
-      String line;
-      while ((line = reader.readLine()) != null) {
-        parseLine(stackTraceBuilder, textBuilder, line);
+  Property readProperty(XMLStreamReader xmlStreamReader) {
+    Property.Builder builder = Property.newBuilder();
+    for (int i = 0; i < xmlStreamReader.getAttributeCount(); i++) {
+      switch (xmlStreamReader.getAttributeLocalName(i)) {
+        case "name":
+          builder.setName(pooled(xmlStreamReader.getAttributeValue(i)));
+          break;
+        case "value":
+          builder.setValue(xmlStreamReader.getAttributeValue(i));
+          break;
       }
+    }
+    return builder.build();
+  }
 
-      if (textBuilder.length() > 0) {
-        stackTraceBuilder.addStackContentBuilder().setText(textBuilder.toString());
+  /** Adds the name and value of the current {@code <property>}, or nulls if they are missing. */
+  static void readProperty(XMLStreamReader xmlStreamReader, List<String> namesAndValues) {
+    String name = null;
+    String value = null;
+    for (int i = 0; i < xmlStreamReader.getAttributeCount(); i++) {
+      switch (xmlStreamReader.getAttributeLocalName(i)) {
+        case "name":
+          name = xmlStreamReader.getAttributeValue(i);
+          break;
+        case "value":
+          value = xmlStreamReader.getAttributeValue(i);
+          break;
       }
-    } catch (IOException e) {
-      throw new XMLStreamException("Error parsing stack trace", e);
     }
+    namesAndValues.add(name);
+    namesAndValues.add(value);
   }
 
-  private void parseLine(
-      StackTrace.Builder stackTraceBuilder, StringBuilder textBuilder, String line)
-      throws XMLStreamException {
-    try {
-      int openParen = line.lastIndexOf('(');
-      int closeParen = line.lastIndexOf(')');
-      if (!line.startsWith(JAVA_STACK_FRAME_PREFIX) || openParen < 0 || closeParen < 0) {
-        textBuilder.append(line).append("\n");
-        return;
+  /** Returns a passed test case with the attributes of the current {@code <testcase>}. */
+  TestCase.Builder readTestCaseAttributes(XMLStreamReader xmlStreamReader) {
+    TestCase.Builder builder = TestCase.newBuilder();
+    builder.setStatus(TestStatus.PASSED);
+    for (int i = 0; i < xmlStreamReader.getAttributeCount(); i++) {
+      switch (xmlStreamReader.getAttributeLocalName(i)) {
+        case "name":
+          builder.setName(xmlStreamReader.getAttributeValue(i));
+          break;
+        case "classname":
+          builder.setClassName(pooled(xmlStreamReader.getAttributeValue(i)));
+          break;
+        case "time":
+          builder.setElapsedTimeMillis(parseMillis(xmlStreamReader.getAttributeValue(i)));
+          break;
       }
+    }
+    return builder;
+  }
 
-      String fileAndLine = line.substring(openParen + 1, closeParen);
-      int colon = fileAndLine.indexOf(':');
-      if (colon <= 0 || colon != fileAndLine.lastIndexOf(':')) {
-        textBuilder.append(line).append("\n");
-        return;
+  void readStackTraceAttributes(XMLStreamReader xmlStreamReader,
+      StackTrace.Builder stackTraceBuilder) {
+    for (int i = 0; i < xmlStreamReader.getAttributeCount(); i++) {
+      switch (xmlStreamReader.getAttributeLocalName(i)) {
+        case "message":
+          stackTraceBuilder.setExceptionMessage(xmlStreamReader.getAttributeValue(i));
+          break;
+        case "type":
+          stackTraceBuilder.setExceptionType(pooled(xmlStreamReader.getAttributeValue(i)));
+          break;
       }
+    }
+  }
+
+  private String pooled(String string) {
+    return stringPool == null ? string : stringPool.intern(string);
+  }
 
-      String path;
-      String classAndMethod = line.substring(JAVA_STACK_FRAME_PREFIX.length(), openParen);
-      String fullyQualifiedClassname = classAndMethod
-          .substring(0, classAndMethod.lastIndexOf('.'));
-      String filename = fileAndLine.substring(0, colon);
-      if (fullyQualifiedClassname.contains(".")) {
-        String packageName =
-            fullyQualifiedClassname.substring(0, fullyQualifiedClassname.lastIndexOf("."));
-        String directory = packageName.replaceAll("\\.", File.separator);
-        path = directory + File.separator + filename;
+  /**
+   * Returns the milliseconds in a {@code time} attribute such as {@code "0.068"}, dropping
+   * digits beyond the third decimal. Plain decimals are decoded digit by digit, exactly at any
+   * magnitude; anything else, such as an exponent, is left to {@link Double#parseDouble}.
+   */
+  static long parseMillis(String seconds) {
+    int length = seconds.length();
+    int i = 0;
+    boolean negative = false;
+    if (length > 0 && (seconds.charAt(0) == '-' || seconds.charAt(0) == '+')) {
+      negative = seconds.charAt(0) == '-';
+      i++;
+    }
+    long millis = 0;
+    int integerDigits = 0;
+    // Negative until the decimal point.
+    int fractionDigits = -1;
+    for (; i < length; i++) {
+      char c = seconds.charAt(i);
+      if (c >= '0' && c <= '9') {
+        if (fractionDigits < 0) {
+          if (++integerDigits > 15) {
+            return parseMillisSlowly(seconds);
+          }
+          millis = millis * 10 + (c - '0');
+        } else if (fractionDigits < 3) {
+          millis = millis * 10 + (c - '0');
+          fractionDigits++;
+        }
+      } else if (c == '.' && fractionDigits < 0) {
+        fractionDigits = 0;
       } else {
-        path = filename;
+        return parseMillisSlowly(seconds);
       }
+    }
+    if (integerDigits == 0 && fractionDigits <= 0) {
+      return parseMillisSlowly(seconds);
+    }
+    for (int scale = Math.max(fractionDigits, 0); scale < 3; scale++) {
+      millis *= 10;
+    }
+    return negative ? -millis : millis;
+  }
+
+  private static long parseMillisSlowly(String seconds) {
+    return (long) (Double.parseDouble(seconds) * 1000);
+  }
 
-      int lineNumber;
+  private static void closeSpill(OutputSpill spill) throws XMLStreamException {
+    if (spill != null) {
       try {
-        lineNumber = Integer.parseInt(fileAndLine.substring(colon + 1));
-      } catch (NumberFormatException e) {
-        textBuilder.append(line).append("\n");
-        return;
+        spill.close();
+      } catch (IOException e) {
+        throw new XMLStreamException("Failed to write output to " + spill.getPath(), e);
       }
+    }
+  }
+
+  private void parseStackTrace(XMLStreamReader xmlStreamReader,
+      StackTrace.Builder stackTraceBuilder, String elementType, Scratch scratch)
+      throws XMLStreamException {
+    readStackTraceAttributes(xmlStreamReader, stackTraceBuilder);
+    StackTraceParser stackTraceParser = new StackTraceParser(stackTraceBuilder,
+        structureStackTraces, retainStackTraceContent, stackFrameCache, stringPool, scratch.text,
+        scratch.line, scratch.content);
+    String tagName = null;
+    do {
+      xmlStreamReader.next();
+      if (xmlStreamReader.hasName()) {
+        tagName = xmlStreamReader.getLocalName();
+      } else if (isText(xmlStreamReader)) {
+        stackTraceParser.append(xmlStreamReader.getTextCharacters(),
+            xmlStreamReader.getTextStart(), xmlStreamReader.getTextLength());
+      }
+    } while (!xmlStreamReader.isEndElement() || !elementType.equals(tagName));
+    stackTraceParser.finish();
+  }
 
-      textBuilder.append(line.substring(0, openParen + 1));
-      if (textBuilder.length() > 0) {
-        stackTraceBuilder.addStackContentBuilder().setText(textBuilder.toString());
-        textBuilder.setLength(0);
+  /** Buffers reused by the reports parsed on one thread, one report at a time. */
+  private static final class Scratch {
+    StringBuilder text = new StringBuilder();
+    StringBuilder line = new StringBuilder();
+    StringBuilder content = new StringBuilder();
+    final List<String> properties = new ArrayList<>();
+    boolean inUse;
+
+    void release() {
+      inUse = false;
+      properties.clear();
+      // Do not hold on to the memory of one unusually large report.
+      if (text.capacity() > MAX_RETAINED_SCRATCH) {
+        text = new StringBuilder();
+      }
+      if (line.capacity() > MAX_RETAINED_SCRATCH) {
+        line = new StringBuilder();
+      }
+      if (content.capacity() > MAX_RETAINED_SCRATCH) {
+        content = new StringBuilder();
       }
-      stackTraceBuilder.addStackContentBuilder().getCodeReferenceBuilder()
-          .setText(fileAndLine)
-          .setPath(path)
-          .setLineNumber(lineNumber);
-      textBuilder.append(line.substring(closeParen)).append("\n");
-    } catch (Exception e) {
-      throw new XMLStreamException("Error parsing stack trace on line:\n" + line + "\n", e);
     }
   }
 }
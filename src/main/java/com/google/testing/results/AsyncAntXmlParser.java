@@ -0,0 +1,363 @@
+/*
+ * Copyright 2014 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.testing.results;
+
+import static com.google.common.base.Preconditions.checkState;
+
+import com.fasterxml.aalto.AsyncByteArrayFeeder;
+import com.fasterxml.aalto.AsyncXMLStreamReader;
+import com.fasterxml.aalto.stax.InputFactoryImpl;
+import com.google.testing.results.TestSuiteProto.CapturedOutput;
+import com.google.testing.results.TestSuiteProto.Property;
+import com.google.testing.results.TestSuiteProto.StackTrace;
+import com.google.testing.results.TestSuiteProto.TestCase;
+import com.google.testing.results.TestSuiteProto.TestStatus;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+
+/**
+ * Parses one Ant (Junit task) XML report from chunks of bytes handed over as they become
+ * available, for example while the test run is still writing the file.
+ *
+ * <p>Each call to {@link #feed} parses as much as the bytes fed so far allow and returns
+ * without waiting for more, reporting every completed element to the
+ * {@link TestResultsListener} right away. No thread is tied up while a report is incomplete.
+ * The result is the same as {@link AntXmlParser#parse(java.io.InputStream,
+ * java.nio.charset.Charset, TestResultsListener)} on the whole report would give, with the
+ * options of the {@link AntXmlParser} this was created by. Output is always decoded rather than
+ * skipped as bytes, so no skipped output is reported to its {@link ParseMetrics}.
+ *
+ * <p>Built on the non-blocking reader of Aalto, which must be on the class path, and limited to
+ * the encodings it supports: UTF-8, US-ASCII and ISO-8859-1. Instances are not thread-safe.
+ *
+ * @see AntXmlParser#newAsyncParser
+ */
+public final class AsyncAntXmlParser {
+  /** The elements a report is made of, as far as parsing is concerned. */
+  private enum Element {
+    ROOT,
+    SUITES,
+    SUITE,
+    PROPERTIES,
+    TEST_CASE,
+    STACK_TRACE,
+    SKIPPED,
+    OUTPUT,
+    /** Any element whose contents are of no interest. */
+    IGNORED,
+  }
+
+  private final AntXmlParser parser;
+  private final TestResultsListener listener;
+  private final AsyncXMLStreamReader<AsyncByteArrayFeeder> reader;
+  private final OutputSpill spill;
+  private final Deque<Element> openElements = new ArrayDeque<>();
+  private boolean foundSuites;
+  private boolean ended;
+
+  private TestCase.Builder testCase;
+  private StackTraceParser stackTrace;
+  private StringBuilder skippedMessage;
+  /** Names and values of the current {@code <properties>} block, if property sets are cached. */
+  private List<String> propertyNamesAndValues;
+  private String outputElement;
+  private OutputCapture output;
+
+  AsyncAntXmlParser(AntXmlParser parser, TestResultsListener listener) {
+    this.parser = parser;
+    this.listener = listener;
+    XMLInputFactory factory = new InputFactoryImpl();
+    factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+    this.reader = ((InputFactoryImpl) factory).createAsyncForByteArray();
+    this.spill = parser.newOutputSpill();
+    openElements.push(Element.ROOT);
+  }
+
+  /**
+   * Parses {@code length} more bytes of the report. The bytes are fully consumed before this
+   * returns, so the array may be reused for the next chunk.
+   *
+   * @throws XmlParseException if the bytes fed so far are not a valid report
+   */
+  public void feed(byte[] bytes, int offset, int length) throws XmlParseException {
+    checkState(!ended, "Input already ended");
+    try {
+      reader.getInputFeeder().feedInput(bytes, offset, length);
+      parseAvailable();
+    } catch (XMLStreamException e) {
+      throw failed(e);
+    }
+  }
+
+  /**
+   * Signals that the whole report has been fed and finishes parsing it.
+   *
+   * @throws XmlParseException if the report is incomplete or not a valid report
+   */
+  public void endOfInput() throws XmlParseException {
+    checkState(!ended, "Input already ended");
+    try {
+      reader.getInputFeeder().endOfInput();
+      if (!parseAvailable()) {
+        // The reader keeps asking for more input rather than failing on a truncated document.
+        abort();
+        throw new XmlParseException("Unexpected end of input at " + reader.getLocation());
+      }
+    } catch (XMLStreamException e) {
+      throw failed(e);
+    }
+    close();
+    if (!foundSuites) {
+      throw new XmlParseException("No testsuites or testsuite element found.");
+    }
+  }
+
+  /** Parses the input fed so far, returning whether the end of the document was reached. */
+  private boolean parseAvailable() throws XMLStreamException, XmlParseException {
+    while (true) {
+      switch (reader.next()) {
+        case AsyncXMLStreamReader.EVENT_INCOMPLETE:
+          return false;
+        case XMLStreamConstants.END_DOCUMENT:
+          return true;
+        case XMLStreamConstants.START_ELEMENT:
+          startElement(reader.getLocalName());
+          break;
+        case XMLStreamConstants.END_ELEMENT:
+          endElement();
+          break;
+        case XMLStreamConstants.CHARACTERS:
+        case XMLStreamConstants.CDATA:
+          characters(reader.getTextCharacters(), reader.getTextStart(), reader.getTextLength());
+          break;
+        default:
+          break;
+      }
+    }
+  }
+
+  private void startElement(String name) throws XMLStreamException, XmlParseException {
+    Element parent = openElements.peek();
+    switch (parent) {
+      case ROOT:
+        if (foundSuites) {
+          openElements.push(Element.IGNORED);
+        } else if (name.equals("testsuites")) {
+          foundSuites = true;
+          openElements.push(Element.SUITES);
+        } else if (name.equals("testsuite")) {
+          foundSuites = true;
+          startSuite();
+        } else {
+          throw unsupportedElement("root", name);
+        }
+        break;
+      case SUITES:
+        if (!name.equals("testsuite")) {
+          throw unsupportedElement("testsuites", name);
+        }
+        startSuite();
+        break;
+      case SUITE:
+        switch (name) {
+          case "properties":
+            if (parser.getPropertySetCache() != null) {
+              propertyNamesAndValues = new ArrayList<>();
+            }
+            openElements.push(Element.PROPERTIES);
+            break;
+          case "testcase":
+            testCase = parser.readTestCaseAttributes(reader);
+            openElements.push(Element.TEST_CASE);
+            break;
+          case "system-out":
+          case "system-err":
+            startOutput(name);
+            break;
+          default:
+            throw unsupportedElement("testsuite", name);
+        }
+        break;
+      case PROPERTIES:
+        if (name.equals("property")) {
+          if (propertyNamesAndValues == null) {
+            listener.onProperty(parser.readProperty(reader));
+          } else {
+            AntXmlParser.readProperty(reader, propertyNamesAndValues);
+          }
+        }
+        openElements.push(Element.IGNORED);
+        break;
+      case TEST_CASE:
+        switch (name) {
+          case "failure":
+            testCase.setStatus(TestStatus.FAILED);
+            startStackTrace(testCase.addFailureBuilder());
+            break;
+          case "error":
+            testCase.setStatus(TestStatus.ERROR);
+            startStackTrace(testCase.getErrorBuilder());
+            break;
+          case "skipped":
+            testCase.setStatus(TestStatus.SKIPPED);
+            skippedMessage = new StringBuilder();
+            openElements.push(Element.SKIPPED);
+            break;
+          case "system-out":
+          case "system-err":
+            startOutput(name);
+            break;
+          default:
+            throw unsupportedElement("testcase", name);
+        }
+        break;
+      default:
+        openElements.push(Element.IGNORED);
+    }
+  }
+
+  private void startSuite() {
+    listener.onSuiteStart(parser.readSuiteAttributes(reader));
+    openElements.push(Element.SUITE);
+  }
+
+  private void startStackTrace(StackTrace.Builder builder) {
+    parser.readStackTraceAttributes(reader, builder);
+    stackTrace = parser.newStackTraceParser(builder);
+    openElements.push(Element.STACK_TRACE);
+  }
+
+  private void startOutput(String name) {
+    outputElement = name;
+    if (parser.capturesOutput()) {
+      output = parser.newOutputCapture(spill);
+    }
+    openElements.push(Element.OUTPUT);
+  }
+
+  private void characters(char[] text, int start, int length) throws XMLStreamException {
+    switch (openElements.peek()) {
+      case STACK_TRACE:
+        stackTrace.append(text, start, length);
+        break;
+      case SKIPPED:
+        skippedMessage.append(text, start, length);
+        break;
+      case OUTPUT:
+        if (output != null) {
+          output.append(text, start, length);
+        }
+        break;
+      default:
+        break;
+    }
+  }
+
+  private void endElement() throws XMLStreamException {
+    switch (openElements.pop()) {
+      case SUITE:
+        listener.onSuiteEnd();
+        break;
+      case PROPERTIES:
+        if (propertyNamesAndValues != null) {
+          for (Property property : parser.getPropertySetCache().get(propertyNamesAndValues)) {
+            listener.onProperty(property);
+          }
+          propertyNamesAndValues = null;
+        }
+        break;
+      case TEST_CASE:
+        listener.onTestCase(testCase.build());
+        testCase = null;
+        break;
+      case STACK_TRACE:
+        stackTrace.finish();
+        stackTrace = null;
+        break;
+      case SKIPPED:
+        testCase.setSkippedMessage(skippedMessage.toString());
+        skippedMessage = null;
+        break;
+      case OUTPUT:
+        if (output != null) {
+          endOutput(output.finish());
+          output = null;
+        }
+        break;
+      default:
+        break;
+    }
+  }
+
+  private void endOutput(CapturedOutput capturedOutput) {
+    boolean systemOut = outputElement.equals("system-out");
+    if (testCase != null) {
+      if (systemOut) {
+        testCase.setSystemOut(capturedOutput);
+      } else {
+        testCase.setSystemErr(capturedOutput);
+      }
+    } else if (systemOut) {
+      listener.onSystemOut(capturedOutput);
+    } else {
+      listener.onSystemErr(capturedOutput);
+    }
+  }
+
+  private XmlParseException unsupportedElement(String elementName, String childElement) {
+    abort();
+    return new XmlParseException(
+        "Element <" + elementName + "> should not contain element <" + childElement + ">.");
+  }
+
+  private XmlParseException failed(XMLStreamException e) {
+    abort();
+    if (e.getLocation() == null) {
+      throw new RuntimeException(e);
+    }
+    return new XmlParseException(e.getMessage(), e);
+  }
+
+  private void close() {
+    ended = true;
+    try {
+      reader.close();
+      if (spill != null) {
+        spill.close();
+      }
+    } catch (XMLStreamException | IOException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  /** Stops parsing after an error, which is reported in preference to any error closing. */
+  private void abort() {
+    try {
+      close();
+    } catch (RuntimeException e) {
+      // Ignored.
+    }
+  }
+}
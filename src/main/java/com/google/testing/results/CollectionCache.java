@@ -0,0 +1,191 @@
+/*
+ * Copyright 2014 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.testing.results;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.hash.Funnels;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.common.io.ByteStreams;
+import com.google.protobuf.ByteString;
+import com.google.testing.results.CollectionCacheProto.CachedFile;
+import com.google.testing.results.TestSuiteProto.TestSuite;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Persistent cache of parsed report files for {@link DirectoryBasedOutputsCollector}.
+ *
+ * <p>Entries are keyed by file URI, which for a file in an archive includes the archive's path,
+ * and validated against the file's size and modification time, so
+ * re-collecting an unchanged tree costs one {@code stat} per file instead of an XML parse. With
+ * content hashing enabled, a file whose size or modification time changed is hashed and still
+ * reused if its contents are the same.
+ *
+ * <p>The cache only keeps the files seen by the most recent collection, so each cache file
+ * should be used for a single root.
+ */
+public final class CollectionCache {
+  private final Path cacheFile;
+  private final boolean hashContents;
+  private Map<String, CachedFile> previous;
+  private ConcurrentMap<String, CachedFile> current = new ConcurrentHashMap<>();
+  private final AtomicLong hitCount = new AtomicLong();
+  private final AtomicLong missCount = new AtomicLong();
+
+  private CollectionCache(Path cacheFile, boolean hashContents, Map<String, CachedFile> entries) {
+    this.cacheFile = cacheFile;
+    this.hashContents = hashContents;
+    this.previous = entries;
+  }
+
+  /**
+   * Loads the cache stored in {@code cacheFile}, or starts an empty one if the file does not
+   * exist yet.
+   *
+   * @param hashContents whether to fall back to comparing a SHA-256 of the contents when a
+   *     file's size or modification time changed
+   */
+  public static CollectionCache open(Path cacheFile, boolean hashContents) throws IOException {
+    Map<String, CachedFile> entries = new HashMap<>();
+    if (Files.exists(cacheFile)) {
+      try (InputStream in = new BufferedInputStream(Files.newInputStream(cacheFile))) {
+        CachedFile entry;
+        while ((entry = CachedFile.parseDelimitedFrom(in)) != null) {
+          entries.put(entry.getPath(), entry);
+        }
+      }
+    }
+    return new CollectionCache(cacheFile, hashContents, entries);
+  }
+
+  /** Number of files served from the cache since it was opened. */
+  public long getHitCount() {
+    return hitCount.get();
+  }
+
+  /** Number of files that had to be parsed since the cache was opened. */
+  public long getMissCount() {
+    return missCount.get();
+  }
+
+  /**
+   * Returns the suites cached for {@code file}, or {@code null} if the file is new or changed and
+   * has to be parsed. Thread-safe.
+   */
+  ImmutableList<TestSuite> get(Path file, BasicFileAttributes attrs) throws IOException {
+    String key = keyOf(file);
+    CachedFile entry = previous.get(key);
+    if (entry != null && !isUpToDate(entry, file, attrs)) {
+      entry = null;
+    }
+    if (entry == null) {
+      missCount.incrementAndGet();
+      return null;
+    }
+    hitCount.incrementAndGet();
+    if (entry.getLastModifiedMillis() != attrs.lastModifiedTime().toMillis()) {
+      // Touched but unchanged: remember the new time so that the next check needs no hash.
+      entry = entry.toBuilder()
+          .setSize(attrs.size())
+          .setLastModifiedMillis(attrs.lastModifiedTime().toMillis())
+          .build();
+    }
+    current.put(key, entry);
+    return ImmutableList.copyOf(entry.getTestSuiteList());
+  }
+
+  private boolean isUpToDate(CachedFile entry, Path file, BasicFileAttributes attrs)
+      throws IOException {
+    if (entry.getSize() == attrs.size()
+        && entry.getLastModifiedMillis() == attrs.lastModifiedTime().toMillis()) {
+      return true;
+    }
+    return hashContents && entry.hasContentHash() && entry.getSize() == attrs.size()
+        && entry.getContentHash().equals(hash(file));
+  }
+
+  /** Returns the key of {@code file}, unique across file systems such as archives. */
+  private static String keyOf(Path file) {
+    return file.toUri().toString();
+  }
+
+  /**
+   * Records the result of parsing {@code file}. {@code testSuites} is {@code null} if the file
+   * could not be parsed. Thread-safe.
+   */
+  void put(Path file, BasicFileAttributes attrs, List<TestSuite> testSuites) throws IOException {
+    CachedFile.Builder entry = CachedFile.newBuilder()
+        .setPath(keyOf(file))
+        .setSize(attrs.size())
+        .setLastModifiedMillis(attrs.lastModifiedTime().toMillis());
+    if (hashContents) {
+      entry.setContentHash(hash(file));
+    }
+    if (testSuites == null) {
+      entry.setParseFailed(true);
+    } else {
+      entry.addAllTestSuite(testSuites);
+    }
+    current.put(entry.getPath(), entry.build());
+  }
+
+  /**
+   * Writes the entries of the files seen since the last save to the cache file, replacing it
+   * atomically, and forgets about files that were not seen.
+   */
+  public void save() throws IOException {
+    Path parent = cacheFile.toAbsolutePath().getParent();
+    Files.createDirectories(parent);
+    Path temp = Files.createTempFile(parent, cacheFile.getFileName().toString(), ".tmp");
+    try {
+      try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(temp))) {
+        for (CachedFile entry : current.values()) {
+          entry.writeDelimitedTo(out);
+        }
+      }
+      Files.move(temp, cacheFile, StandardCopyOption.REPLACE_EXISTING,
+          StandardCopyOption.ATOMIC_MOVE);
+    } finally {
+      Files.deleteIfExists(temp);
+    }
+    previous = current;
+    current = new ConcurrentHashMap<>();
+  }
+
+  private static ByteString hash(Path file) throws IOException {
+    Hasher hasher = Hashing.sha256().newHasher();
+    try (InputStream in = Files.newInputStream(file)) {
+      ByteStreams.copy(in, Funnels.asOutputStream(hasher));
+    }
+    return ByteString.copyFrom(hasher.hash().asBytes());
+  }
+}
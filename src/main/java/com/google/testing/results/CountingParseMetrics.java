@@ -0,0 +1,187 @@
+/*
+ * Copyright 2014 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.testing.results;
+
+import com.google.common.collect.ImmutableSortedMap;
+import com.google.testing.results.TestSuiteProto.StackContent;
+import com.google.testing.results.TestSuiteProto.StackTrace;
+import com.google.testing.results.TestSuiteProto.TestCase;
+import com.google.testing.results.TestSuiteProto.TestStatus;
+import com.google.testing.results.TestSuiteProto.TestSuite;
+
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link ParseMetrics} that keeps running totals in striped counters, so that parsing threads
+ * do not contend on them, along with the slowest file parsed.
+ */
+public final class CountingParseMetrics implements ParseMetrics {
+  private final StripedCounter filesVisited = new StripedCounter();
+  private final StripedCounter filesAccepted = new StripedCounter();
+  private final StripedCounter filesParsed = new StripedCounter();
+  private final StripedCounter bytesParsed = new StripedCounter();
+  private final StripedCounter parseNanos = new StripedCounter();
+  private final StripedCounter suites = new StripedCounter();
+  private final StripedCounter testCases = new StripedCounter();
+  private final StripedCounter failures = new StripedCounter();
+  private final StripedCounter frames = new StripedCounter();
+  private final StripedCounter skippedOutputBytes = new StripedCounter();
+  private final ConcurrentMap<String, StripedCounter> errors = new ConcurrentHashMap<>();
+  private volatile long slowestFileNanos = -1;
+  private Path slowestFile;
+
+  @Override
+  public void fileVisited(Path file, boolean accepted) {
+    filesVisited.increment();
+    if (accepted) {
+      filesAccepted.increment();
+    }
+  }
+
+  @Override
+  public void fileParsed(Path file, long bytes, long elapsedNanos, List<TestSuite> testSuites) {
+    filesParsed.increment();
+    bytesParsed.add(bytes);
+    parseNanos.add(elapsedNanos);
+    suites.add(testSuites.size());
+    int testCaseCount = 0;
+    int failureCount = 0;
+    int frameCount = 0;
+    for (TestSuite testSuite : testSuites) {
+      testCaseCount += testSuite.getTestCaseCount();
+      for (TestCase testCase : testSuite.getTestCaseList()) {
+        if (testCase.getStatus() == TestStatus.FAILED || testCase.getStatus() == TestStatus.ERROR) {
+          failureCount++;
+        }
+        for (StackTrace failure : testCase.getFailureList()) {
+          frameCount += countFrames(failure);
+        }
+        if (testCase.hasError()) {
+          frameCount += countFrames(testCase.getError());
+        }
+      }
+    }
+    testCases.add(testCaseCount);
+    failures.add(failureCount);
+    frames.add(frameCount);
+    if (elapsedNanos > slowestFileNanos) {
+      synchronized (this) {
+        if (elapsedNanos > slowestFileNanos) {
+          slowestFile = file;
+          slowestFileNanos = elapsedNanos;
+        }
+      }
+    }
+  }
+
+  private static int countFrames(StackTrace stackTrace) {
+    int count = 0;
+    for (StackContent content : stackTrace.getStackContentList()) {
+      if (content.hasCodeReference()) {
+        count++;
+      }
+    }
+    return count;
+  }
+
+  @Override
+  public void parseFailed(Path file, Exception error) {
+    String type = error.getClass().getName();
+    StripedCounter counter = errors.get(type);
+    if (counter == null) {
+      StripedCounter added = new StripedCounter();
+      counter = errors.putIfAbsent(type, added);
+      if (counter == null) {
+        counter = added;
+      }
+    }
+    counter.increment();
+  }
+
+  @Override
+  public void outputSkipped(long bytes) {
+    skippedOutputBytes.add(bytes);
+  }
+
+  public long getFilesVisited() {
+    return filesVisited.sum();
+  }
+
+  /** Returns the number of visited files that were taken to be test reports. */
+  public long getFilesAccepted() {
+    return filesAccepted.sum();
+  }
+
+  public long getFilesParsed() {
+    return filesParsed.sum();
+  }
+
+  public long getBytesParsed() {
+    return bytesParsed.sum();
+  }
+
+  /** Returns the time spent parsing files, summed over all threads. */
+  public long getParseTime(TimeUnit unit) {
+    return unit.convert(parseNanos.sum(), TimeUnit.NANOSECONDS);
+  }
+
+  public long getSuiteCount() {
+    return suites.sum();
+  }
+
+  public long getTestCaseCount() {
+    return testCases.sum();
+  }
+
+  /** Returns the number of test cases that failed or had an error. */
+  public long getFailureCount() {
+    return failures.sum();
+  }
+
+  /** Returns the number of stack frames with a code reference. */
+  public long getFrameCount() {
+    return frames.sum();
+  }
+
+  public long getSkippedOutputBytes() {
+    return skippedOutputBytes.sum();
+  }
+
+  /** Returns the number of files that failed to parse, by exception class name. */
+  public ImmutableSortedMap<String, Long> getErrorCounts() {
+    ImmutableSortedMap.Builder<String, Long> result = ImmutableSortedMap.naturalOrder();
+    for (Map.Entry<String, StripedCounter> entry : errors.entrySet()) {
+      result.put(entry.getKey(), entry.getValue().sum());
+    }
+    return result.build();
+  }
+
+  /** Returns the file that took longest to parse, or {@code null} if none was parsed. */
+  public synchronized Path getSlowestFile() {
+    return slowestFile;
+  }
+
+  /** Returns how long the slowest file took to parse. */
+  public long getSlowestFileTime(TimeUnit unit) {
+    return unit.convert(Math.max(0, slowestFileNanos), TimeUnit.NANOSECONDS);
+  }
+}
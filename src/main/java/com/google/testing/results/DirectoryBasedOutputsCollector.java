@@ -16,21 +16,57 @@
 
 package com.google.testing.results;
 
+import static com.google.common.base.Preconditions.checkNotNull;
 import static java.nio.charset.StandardCharsets.UTF_8;
 
 import com.google.common.base.Predicate;
+import com.google.common.base.Throwables;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Iterables;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.Uninterruptibles;
 import com.google.testing.results.TestResultsProto.TestResults;
+import com.google.testing.results.TestSuiteProto.Property;
+import com.google.testing.results.TestSuiteProto.TestCase;
+import com.google.testing.results.TestSuiteProto.TestSuite;
+
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
 
 import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystems;
 import java.nio.file.FileVisitResult;
 import java.nio.file.FileVisitor;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Logger;
+import java.util.zip.GZIPInputStream;
 
 /**
+ * Collects the test results found in a directory tree.
+ *
+ * <p>The tree may also be a {@code .zip} or {@code .jar} file, or a {@code .tar.gz} or
+ * {@code .tgz} file, such as a CI artifact. Reports are then read straight out of the archive,
+ * without extracting it; zip entries are parsed on the executor like files, tar entries in
+ * sequence on the calling thread. The build log is recorded as the archive path, {@code !} and
+ * the path within the archive.
+ *
+ * <p>XML reports are parsed on the {@link ExecutorService} configured with
+ * {@link Builder#setExecutor}, by default the calling thread. Suites are always merged in the
+ * order the files were visited, so the result does not depend on the executor.
+ *
  * @author alexeagle@google.com (Alex Eagle)
  */
 public class DirectoryBasedOutputsCollector {
@@ -44,10 +80,241 @@ public class DirectoryBasedOutputsCollector {
     }
   };
 
-  AntXmlParser xmlParser = new AntXmlParser();
+  private static final int ARCHIVE_BUFFER_SIZE = 64 * 1024;
+
+  private final StackFrameCache stackFrameCache = new StackFrameCache();
+
+  // Shared by all workers, along with its stack frame cache and string pool.
+  private final AntXmlParser xmlParser;
+
+  private final ExecutorService executor;
+  private final boolean deduplicateStackTraces;
+  private final boolean deduplicatePropertySets;
+  private final CollectionCache collectionCache;
+  private final ParseMetrics metrics;
+
+  /** Creates a collector that parses every file on the thread calling {@link #parse}. */
+  public DirectoryBasedOutputsCollector() {
+    this(newBuilder());
+  }
+
+  /**
+   * Creates a collector that parses files on {@code executor}.
+   *
+   * @see Builder#setExecutor
+   */
+  public DirectoryBasedOutputsCollector(ExecutorService executor) {
+    this(newBuilder().setExecutor(executor));
+  }
+
+  private DirectoryBasedOutputsCollector(Builder builder) {
+    this.xmlParser = AntXmlParser.newBuilder()
+        .setStackFrameCache(stackFrameCache)
+        .setStringPool(builder.stringPool)
+        .setPropertySetCache(builder.deduplicatePropertySets ? new PropertySetCache() : null)
+        .setMetrics(builder.metrics)
+        .build();
+    this.executor = builder.executor;
+    this.deduplicateStackTraces = builder.deduplicateStackTraces;
+    this.deduplicatePropertySets = builder.deduplicatePropertySets;
+    this.collectionCache = builder.collectionCache;
+    this.metrics = builder.metrics;
+  }
+
+  public static Builder newBuilder() {
+    return new Builder();
+  }
+
+  /** Options for a {@link DirectoryBasedOutputsCollector}. */
+  public static final class Builder {
+    private ExecutorService executor = MoreExecutors.newDirectExecutorService();
+    private boolean deduplicateStackTraces;
+    private boolean deduplicatePropertySets;
+    private CollectionCache collectionCache;
+    private StringPool stringPool;
+    private ParseMetrics metrics = ParseMetrics.NO_OP;
+
+    private Builder() {}
+
+    /**
+     * Executor the XML files are parsed on, for example a
+     * {@link java.util.concurrent.ForkJoinPool}. The caller remains responsible for shutting the
+     * executor down. By default files are parsed on the thread calling {@link #parse}.
+     */
+    public Builder setExecutor(ExecutorService executor) {
+      this.executor = executor;
+      return this;
+    }
+
+    /**
+     * Whether identical stack traces are stored only once, in
+     * {@code TestResults.shared_stack_trace}. Defaults to {@code false}.
+     *
+     * @see SharedStackTraces#resolve(TestResults)
+     */
+    public Builder setDeduplicateStackTraces(boolean deduplicateStackTraces) {
+      this.deduplicateStackTraces = deduplicateStackTraces;
+      return this;
+    }
+
+    /**
+     * Whether identical {@code <properties>} blocks are stored only once, in
+     * {@code TestResults.shared_property_set}. Defaults to {@code false}.
+     *
+     * @see SharedPropertySets#resolve(TestResults)
+     */
+    public Builder setDeduplicatePropertySets(boolean deduplicatePropertySets) {
+      this.deduplicatePropertySets = deduplicatePropertySets;
+      return this;
+    }
+
+    /**
+     * Cache of previously parsed files. Files whose size and modification time are unchanged
+     * are taken from the cache instead of being parsed, and the cache is saved at the end of
+     * every {@link #parse}. By default every file is parsed.
+     */
+    public Builder setCollectionCache(CollectionCache collectionCache) {
+      this.collectionCache = collectionCache;
+      return this;
+    }
+
+    /**
+     * Pool shared by the parsers of this collector, so that the class names, exception types,
+     * source paths and property names of all collected suites are each stored once. By default
+     * no pool is used.
+     *
+     * @see AntXmlParser.Builder#setStringPool
+     */
+    public Builder setStringPool(StringPool stringPool) {
+      this.stringPool = stringPool;
+      return this;
+    }
+
+    /**
+     * Metrics told about every file visited and every report parsed, along with the output
+     * skipped and the failures to parse. Defaults to {@link ParseMetrics#NO_OP}.
+     *
+     * @see CountingParseMetrics
+     */
+    public Builder setMetrics(ParseMetrics metrics) {
+      this.metrics = checkNotNull(metrics);
+      return this;
+    }
 
-  public TestResults parse(final Path root) throws IOException {
+    public DirectoryBasedOutputsCollector build() {
+      return new DirectoryBasedOutputsCollector(this);
+    }
+  }
+
+  public TestResults parse(Path root) throws IOException {
     final TestResults.Builder builder = TestResults.newBuilder();
+    collect(root, true, new FragmentSink() {
+      @Override
+      public void accept(TestResults fragment) {
+        builder.mergeFrom(fragment);
+      }
+    });
+    return builder.build();
+  }
+
+  /**
+   * Collects the test results under {@code root} like {@link #parse(Path)}, but writes them to
+   * {@code out} as they are parsed instead of building a single message. Every record is a
+   * length-delimited {@link TestResults} fragment holding one test suite, or only the build log;
+   * merging all records yields the message {@link #parse(Path)} would have returned. Read them
+   * back with {@link TestResultsReader}.
+   */
+  public void parse(Path root, final OutputStream out) throws IOException {
+    collect(root, true, new FragmentSink() {
+      @Override
+      public void accept(TestResults fragment) throws IOException {
+        fragment.writeDelimitedTo(out);
+      }
+    });
+    out.flush();
+  }
+
+  /**
+   * Collects the test results under {@code root} like {@link #parse(Path)}, but reports each
+   * suite to {@code listener} as it is parsed, for example to compute {@link TestStatistics}.
+   * Suites are reported in the same order, with stack traces and properties never deduplicated;
+   * the build log is not reported.
+   */
+  public void parse(Path root, final TestResultsListener listener) throws IOException {
+    collect(root, false, new FragmentSink() {
+      @Override
+      public void accept(TestResults fragment) {
+        for (TestSuite testSuite : fragment.getTestSuiteList()) {
+          listener.onSuiteStart(testSuite.toBuilder()
+              .clearProperty()
+              .clearTestCase()
+              .clearSystemOut()
+              .clearSystemErr()
+              .build());
+          for (Property property : testSuite.getPropertyList()) {
+            listener.onProperty(property);
+          }
+          for (TestCase testCase : testSuite.getTestCaseList()) {
+            listener.onTestCase(testCase);
+          }
+          if (testSuite.hasSystemOut()) {
+            listener.onSystemOut(testSuite.getSystemOut());
+          }
+          if (testSuite.hasSystemErr()) {
+            listener.onSystemErr(testSuite.getSystemErr());
+          }
+          listener.onSuiteEnd();
+        }
+      }
+    });
+  }
+
+  /**
+   * Watches the tree under {@code root} for reports that are added, changed or deleted. All
+   * reports already there are published to {@code subscriber} before this returns; after that,
+   * only the ones that change, once no event has arrived for them for {@code debounce}.
+   * Call {@link TestResultsWatcher#run} to process events and close the watcher when done.
+   */
+  public TestResultsWatcher watch(Path root, long debounce, TimeUnit unit,
+      TestResultsWatcher.Subscriber subscriber) throws IOException {
+    return new TestResultsWatcher(this, root, debounce, unit, subscriber);
+  }
+
+  /** Receives the collected results piece by piece, in a deterministic order. */
+  private interface FragmentSink {
+    void accept(TestResults fragment) throws IOException;
+  }
+
+  /** Collects the reports under {@code root}, deduplicating as configured if {@code share}. */
+  private void collect(Path root, boolean share, FragmentSink sink) throws IOException {
+    SharedStackTraces sharedStackTraces =
+        share && deduplicateStackTraces ? new SharedStackTraces() : null;
+    SharedPropertySets sharedPropertySets =
+        share && deduplicatePropertySets ? new SharedPropertySets() : null;
+    if (isArchive(root, ".zip", ".jar")) {
+      try (FileSystem archive = FileSystems.newFileSystem(root, (ClassLoader) null)) {
+        for (Path archiveRoot : archive.getRootDirectories()) {
+          collectTree(archiveRoot, root + "!", sharedStackTraces, sharedPropertySets, sink);
+        }
+      }
+    } else if (isArchive(root, ".tar.gz", ".tgz")) {
+      collectTarGz(root, sharedStackTraces, sharedPropertySets, sink);
+    } else {
+      collectTree(root, "", sharedStackTraces, sharedPropertySets, sink);
+    }
+    if (collectionCache != null) {
+      collectionCache.save();
+    }
+  }
+
+  /**
+   * Collects the reports under {@code root}. The build log is recorded with its path prefixed
+   * by {@code location}, which names the archive when {@code root} is inside one.
+   */
+  private void collectTree(Path root, final String location,
+      final SharedStackTraces sharedStackTraces, final SharedPropertySets sharedPropertySets,
+      final FragmentSink sink) throws IOException {
+    final Deque<Future<ImmutableList<TestSuite>>> parsedFiles = new ArrayDeque<>();
 
     Files.walkFileTree(root, new FileVisitor<Path>() {
       @Override
@@ -58,17 +325,17 @@ public class DirectoryBasedOutputsCollector {
 
       @Override
       public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
-        System.out.println("file.getFileName() = " + file.getFileName());
+        boolean testReport = isTestReport(file);
+        metrics.fileVisited(file, testReport);
         if (file.getFileName().toString().equals("build-log.txt")) {
-          builder.setBuildLog(file.toString());
+          sink.accept(TestResults.newBuilder().setBuildLog(location + file).build());
         }
-        if (Iterables.any(file, LOOKS_LIKE_TEST_DIRECTORY) &&
-            file.getFileName().toString().endsWith(".xml")) {
-          try {
-            builder.addAllTestSuite(xmlParser.parse(Files.newInputStream(file), UTF_8));
-          } catch (XmlParseException xmlParseError) {
-            logger.warning(
-                "Failed to parse, file = [" + file + "], exc = [" + xmlParseError + "]");
+        if (testReport) {
+          parsedFiles.add(submitParse(file, attrs));
+          // Hand over whatever has been parsed in order so far, rather than holding it.
+          while (!parsedFiles.isEmpty() && parsedFiles.peek().isDone()) {
+            emit(getParsedSuites(parsedFiles.remove()), sharedStackTraces, sharedPropertySets,
+                sink);
           }
         }
         return FileVisitResult.CONTINUE;
@@ -85,6 +352,145 @@ public class DirectoryBasedOutputsCollector {
         return FileVisitResult.CONTINUE;
       }
     });
-    return builder.build();
+
+    while (!parsedFiles.isEmpty()) {
+      emit(getParsedSuites(parsedFiles.remove()), sharedStackTraces, sharedPropertySets, sink);
+    }
+  }
+
+  /**
+   * Collects the reports in the gzipped tar file {@code archive}. Entries can only be read in
+   * sequence, so each report is parsed straight out of the decompressor on the calling thread.
+   */
+  private void collectTarGz(Path archive, SharedStackTraces sharedStackTraces,
+      SharedPropertySets sharedPropertySets, FragmentSink sink) throws IOException {
+    try (TarArchiveInputStream tar = new TarArchiveInputStream(
+        new GZIPInputStream(Files.newInputStream(archive), ARCHIVE_BUFFER_SIZE))) {
+      TarArchiveEntry entry;
+      while ((entry = tar.getNextTarEntry()) != null) {
+        if (!entry.isFile()) {
+          continue;
+        }
+        // Relative, so that only directories within the archive are considered.
+        Path file = archive.getFileSystem().getPath(entry.getName());
+        boolean testReport = isTestReport(file);
+        metrics.fileVisited(file, testReport);
+        if (file.getFileName().toString().equals("build-log.txt")) {
+          sink.accept(TestResults.newBuilder()
+              .setBuildLog(archive + "!/" + entry.getName())
+              .build());
+        }
+        if (testReport) {
+          ImmutableList<TestSuite> testSuites;
+          long start = System.nanoTime();
+          try {
+            testSuites = xmlParser.parse(tar, UTF_8);
+            metrics.fileParsed(file, entry.getSize(), System.nanoTime() - start, testSuites);
+          } catch (XmlParseException xmlParseError) {
+            logger.warning("Failed to parse, file = [" + archive + "!/" + entry.getName()
+                + "], exc = [" + xmlParseError + "]");
+            metrics.parseFailed(file, xmlParseError);
+            testSuites = ImmutableList.of();
+          } catch (RuntimeException e) {
+            metrics.parseFailed(file, e);
+            throw e;
+          }
+          emit(testSuites, sharedStackTraces, sharedPropertySets, sink);
+        }
+      }
+    }
+  }
+
+  private static boolean isArchive(Path path, String... extensions) {
+    if (path.getFileName() == null || !Files.isRegularFile(path)) {
+      return false;
+    }
+    String name = path.getFileName().toString();
+    for (String extension : extensions) {
+      if (name.endsWith(extension)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static void emit(List<TestSuite> testSuites, SharedStackTraces sharedStackTraces,
+      SharedPropertySets sharedPropertySets, FragmentSink sink) throws IOException {
+    for (TestSuite testSuite : testSuites) {
+      TestResults.Builder fragment = TestResults.newBuilder();
+      if (sharedPropertySets != null) {
+        int known = sharedPropertySets.size();
+        testSuite = sharedPropertySets.share(testSuite);
+        fragment.addAllSharedPropertySet(
+            sharedPropertySets.getPropertySets().subList(known, sharedPropertySets.size()));
+      }
+      if (sharedStackTraces == null) {
+        fragment.addTestSuite(testSuite);
+      } else {
+        // Traces first seen in this suite travel with it, ahead of any later reference.
+        int known = sharedStackTraces.size();
+        fragment.addTestSuite(sharedStackTraces.share(testSuite));
+        fragment.addAllSharedStackTrace(
+            sharedStackTraces.getStackTraces().subList(known, sharedStackTraces.size()));
+      }
+      sink.accept(fragment.build());
+    }
+  }
+
+  /**
+   * Starts parsing {@code file} on the executor, or takes it from the cache. A file that fails
+   * to parse yields no suites.
+   */
+  Future<ImmutableList<TestSuite>> submitParse(Path file, BasicFileAttributes attrs)
+      throws IOException {
+    ImmutableList<TestSuite> cached =
+        collectionCache == null ? null : collectionCache.get(file, attrs);
+    if (cached != null) {
+      return Futures.immediateFuture(cached);
+    }
+    return executor.submit(parseTask(file, attrs));
+  }
+
+  /** Returns whether {@code file} is an XML report in a test directory. */
+  static boolean isTestReport(Path file) {
+    return Iterables.any(file, LOOKS_LIKE_TEST_DIRECTORY)
+        && file.getFileName().toString().endsWith(".xml");
+  }
+
+  private Callable<ImmutableList<TestSuite>> parseTask(
+      final Path file, final BasicFileAttributes attrs) {
+    return new Callable<ImmutableList<TestSuite>>() {
+      @Override
+      public ImmutableList<TestSuite> call() throws IOException {
+        ImmutableList<TestSuite> testSuites;
+        long start = System.nanoTime();
+        try {
+          testSuites = xmlParser.parse(file, UTF_8);
+          metrics.fileParsed(file, attrs.size(), System.nanoTime() - start, testSuites);
+        } catch (XmlParseException xmlParseError) {
+          logger.warning(
+              "Failed to parse, file = [" + file + "], exc = [" + xmlParseError + "]");
+          metrics.parseFailed(file, xmlParseError);
+          testSuites = null;
+        } catch (IOException | RuntimeException e) {
+          metrics.parseFailed(file, e);
+          throw e;
+        }
+        if (collectionCache != null) {
+          collectionCache.put(file, attrs, testSuites);
+        }
+        return testSuites == null ? ImmutableList.<TestSuite>of() : testSuites;
+      }
+    };
+  }
+
+  static ImmutableList<TestSuite> getParsedSuites(
+      Future<ImmutableList<TestSuite>> parsedFile) throws IOException {
+    try {
+      return Uninterruptibles.getUninterruptibly(parsedFile);
+    } catch (ExecutionException e) {
+      Throwables.propagateIfPossible(e.getCause(), IOException.class);
+      throw new RuntimeException(e.getCause());
+    }
   }
 }
@@ -0,0 +1,280 @@
+/*
+ * Copyright 2014 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.testing.results;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import com.google.common.collect.ImmutableList;
+import com.google.testing.results.TestResultsProto.TestResults;
+import com.google.testing.results.TestSuiteProto.StackTrace;
+import com.google.testing.results.TestSuiteProto.TestCase;
+import com.google.testing.results.TestSuiteProto.TestStatus;
+import com.google.testing.results.TestSuiteProto.TestSuite;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/**
+ * Detects flaky tests by following the outcome of every test over successive runs.
+ *
+ * <p>Each test keeps a few words of rolling state: whether it failed in each of its last
+ * {@value #WINDOW} runs, how often its outcome flipped between passing and failing, and a hash of
+ * its last failure, so that a test failing in different ways can be told apart from one failing
+ * in the same way every time. Adding a test case costs one hash lookup, and {@link #topFlaky}
+ * scans the compact state of all tests without touching the results again. Skipped test cases
+ * are ignored. Instances are not thread-safe.
+ */
+public final class FlakyTestIndex {
+  /** Number of most recent outcomes kept per test. */
+  public static final int WINDOW = 64;
+
+  private final Map<String, Integer> testIds = new HashMap<>();
+  private String[] classNames = new String[1024];
+  private String[] names = new String[1024];
+  // Bit i is set if the test failed in the i-th most recent run it was part of.
+  private long[] outcomes = new long[1024];
+  private int[] runCounts = new int[1024];
+  private int[] flipCounts = new int[1024];
+  private int[] failureSignatures = new int[1024];
+  private int[] signatureChanges = new int[1024];
+  private int runCount;
+
+  /** Adds the outcomes of one run, {@code testResults} holding all of its test suites. */
+  public void addRun(TestResults testResults) {
+    for (TestSuite testSuite : testResults.getTestSuiteList()) {
+      for (TestCase testCase : testSuite.getTestCaseList()) {
+        add(testResults, testCase);
+      }
+    }
+    runCount++;
+  }
+
+  private void add(TestResults testResults, TestCase testCase) {
+    TestStatus status = testCase.getStatus();
+    if (status == TestStatus.SKIPPED) {
+      return;
+    }
+    int id = testId(testCase.getClassName(), testCase.getName());
+    boolean failed = status == TestStatus.FAILED || status == TestStatus.ERROR;
+    if (runCounts[id] > 0 && failed != ((outcomes[id] & 1) != 0)) {
+      flipCounts[id]++;
+    }
+    outcomes[id] = (outcomes[id] << 1) | (failed ? 1 : 0);
+    runCounts[id]++;
+    if (failed) {
+      int signature = failureSignature(testResults, testCase);
+      if (failureSignatures[id] != 0 && failureSignatures[id] != signature) {
+        signatureChanges[id]++;
+      }
+      failureSignatures[id] = signature;
+    }
+  }
+
+  public int getRunCount() {
+    return runCount;
+  }
+
+  public int getTestCount() {
+    return testIds.size();
+  }
+
+  /** Returns the state of a test, or {@code null} if it was never run. */
+  public FlakyTest getTest(String className, String name) {
+    Integer id = testIds.get(key(className, name));
+    return id == null ? null : newFlakyTest(id);
+  }
+
+  /**
+   * Returns up to {@code count} tests whose outcome flipped most often within their last
+   * {@value #WINDOW} runs, most flaky first. Ties are broken by the flips over all runs. Tests
+   * that did not flip within the window are never returned.
+   */
+  public ImmutableList<FlakyTest> topFlaky(int count) {
+    checkArgument(count >= 0, "count must not be negative: %s", count);
+    final int[] recentFlips = new int[testIds.size()];
+    Comparator<Integer> flakiness = new Comparator<Integer>() {
+      @Override
+      public int compare(Integer a, Integer b) {
+        int result = Integer.compare(recentFlips[a], recentFlips[b]);
+        return result != 0 ? result : Integer.compare(flipCounts[a], flipCounts[b]);
+      }
+    };
+    // Min-heap of the most flaky tests seen so far.
+    PriorityQueue<Integer> top = new PriorityQueue<>(Math.max(1, count), flakiness);
+    for (int id = 0; id < recentFlips.length && count > 0; id++) {
+      recentFlips[id] = recentFlips(outcomes[id], runCounts[id]);
+      if (recentFlips[id] == 0) {
+        continue;
+      }
+      if (top.size() < count) {
+        top.add(id);
+      } else if (flakiness.compare(id, top.peek()) > 0) {
+        top.poll();
+        top.add(id);
+      }
+    }
+    Integer[] ids = top.toArray(new Integer[top.size()]);
+    Arrays.sort(ids, Collections.reverseOrder(flakiness));
+    ImmutableList.Builder<FlakyTest> result = ImmutableList.builder();
+    for (Integer id : ids) {
+      result.add(newFlakyTest(id));
+    }
+    return result.build();
+  }
+
+  private FlakyTest newFlakyTest(int id) {
+    return new FlakyTest(classNames[id], names[id], outcomes[id], Math.min(runCounts[id], WINDOW),
+        recentFlips(outcomes[id], runCounts[id]), runCounts[id], flipCounts[id],
+        failureSignatures[id], signatureChanges[id]);
+  }
+
+  /** Returns the number of flips between the last {@code min(runCount, WINDOW)} outcomes. */
+  private static int recentFlips(long outcomes, int runCount) {
+    int pairs = Math.min(runCount, WINDOW) - 1;
+    if (pairs <= 0) {
+      return 0;
+    }
+    // Bit i of the xor is set if outcome i differs from the outcome before it.
+    long mask = pairs == WINDOW - 1 ? Long.MAX_VALUE : (1L << pairs) - 1;
+    return Long.bitCount((outcomes ^ (outcomes >>> 1)) & mask);
+  }
+
+  private static int failureSignature(TestResults testResults, TestCase testCase) {
+    StackTrace stackTrace = testCase.hasError()
+        ? testCase.getError()
+        : testCase.getFailureCount() > 0 ? testCase.getFailure(0) : null;
+    if (stackTrace == null) {
+      return 1;
+    }
+    stackTrace = SharedStackTraces.resolve(testResults, stackTrace);
+    int signature = 31 * stackTrace.getExceptionType().hashCode()
+        + stackTrace.getExceptionMessage().hashCode();
+    // 0 stands for "never failed".
+    return signature == 0 ? 1 : signature;
+  }
+
+  private int testId(String className, String name) {
+    String key = key(className, name);
+    Integer id = testIds.get(key);
+    if (id == null) {
+      id = testIds.size();
+      testIds.put(key, id);
+      if (id == outcomes.length) {
+        int capacity = id * 2;
+        classNames = Arrays.copyOf(classNames, capacity);
+        names = Arrays.copyOf(names, capacity);
+        outcomes = Arrays.copyOf(outcomes, capacity);
+        runCounts = Arrays.copyOf(runCounts, capacity);
+        flipCounts = Arrays.copyOf(flipCounts, capacity);
+        failureSignatures = Arrays.copyOf(failureSignatures, capacity);
+        signatureChanges = Arrays.copyOf(signatureChanges, capacity);
+      }
+      classNames[id] = className;
+      names[id] = name;
+    }
+    return id;
+  }
+
+  private static String key(String className, String name) {
+    // NUL cannot occur in XML text, so it cannot be part of either name.
+    return className + '\0' + name;
+  }
+
+  /** A snapshot of the state of one test. */
+  public static final class FlakyTest {
+    private final String className;
+    private final String name;
+    private final long recentOutcomes;
+    private final int recentRunCount;
+    private final int recentFlipCount;
+    private final int runCount;
+    private final int flipCount;
+    private final int failureSignature;
+    private final int failureSignatureChanges;
+
+    private FlakyTest(String className, String name, long recentOutcomes, int recentRunCount,
+        int recentFlipCount, int runCount, int flipCount, int failureSignature,
+        int failureSignatureChanges) {
+      this.className = className;
+      this.name = name;
+      this.recentOutcomes = recentOutcomes;
+      this.recentRunCount = recentRunCount;
+      this.recentFlipCount = recentFlipCount;
+      this.runCount = runCount;
+      this.flipCount = flipCount;
+      this.failureSignature = failureSignature;
+      this.failureSignatureChanges = failureSignatureChanges;
+    }
+
+    public String getClassName() {
+      return className;
+    }
+
+    public String getName() {
+      return name;
+    }
+
+    /**
+     * Returns the recent outcomes, bit {@code i} being set if the test failed in the
+     * {@code i}-th most recent run. Only the lowest {@link #getRecentRunCount} bits are used.
+     */
+    public long getRecentOutcomes() {
+      return recentOutcomes;
+    }
+
+    public int getRecentRunCount() {
+      return recentRunCount;
+    }
+
+    /** Returns how often the outcome flipped within the recent runs. */
+    public int getRecentFlipCount() {
+      return recentFlipCount;
+    }
+
+    public int getRunCount() {
+      return runCount;
+    }
+
+    /** Returns how often the outcome flipped over all runs. */
+    public int getFlipCount() {
+      return flipCount;
+    }
+
+    /**
+     * Returns a hash of the exception type and message of the last failure, or 0 if the test
+     * never failed.
+     */
+    public int getFailureSignature() {
+      return failureSignature;
+    }
+
+    /** Returns how often a failure had a different signature than the one before it. */
+    public int getFailureSignatureChanges() {
+      return failureSignatureChanges;
+    }
+
+    @Override
+    public String toString() {
+      return className + "#" + name + ": " + recentFlipCount + " flips in last " + recentRunCount
+          + " runs";
+    }
+  }
+}
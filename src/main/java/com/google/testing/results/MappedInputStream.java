@@ -0,0 +1,109 @@
+/*
+ * Copyright 2014 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.testing.results;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Reads the remainder of a {@link FileChannel} through read-only memory mappings. Files larger
+ * than one mapping can address are mapped one region at a time. The channel's position is
+ * only moved when the stream is closed, to just after the last byte read; closing the stream
+ * does not close the channel.
+ */
+class MappedInputStream extends InputStream {
+  private static final long MAX_REGION_SIZE = 1L << 30;
+
+  private final FileChannel channel;
+  private final long regionSize;
+  private long position;
+  private final long size;
+  private MappedByteBuffer region;
+
+  private MappedInputStream(FileChannel channel, long regionSize, MappedByteBuffer firstRegion)
+      throws IOException {
+    this.channel = channel;
+    this.regionSize = regionSize;
+    this.position = channel.position() + firstRegion.capacity();
+    this.size = channel.size();
+    this.region = firstRegion;
+  }
+
+  /**
+   * Returns a stream over the rest of {@code channel}, or {@code null} if the channel does not
+   * support memory mapping.
+   */
+  static MappedInputStream open(FileChannel channel) throws IOException {
+    return open(channel, MAX_REGION_SIZE);
+  }
+
+  static MappedInputStream open(FileChannel channel, long regionSize) throws IOException {
+    long start = channel.position();
+    long length = Math.min(channel.size() - start, regionSize);
+    try {
+      return new MappedInputStream(channel, regionSize,
+          channel.map(FileChannel.MapMode.READ_ONLY, start, length));
+    } catch (UnsupportedOperationException e) {
+      return null;
+    }
+  }
+
+  @Override
+  public int read() throws IOException {
+    if (!nextRegionIfExhausted()) {
+      return -1;
+    }
+    return region.get() & 0xff;
+  }
+
+  @Override
+  public int read(byte[] bytes, int offset, int length) throws IOException {
+    if (length == 0) {
+      return 0;
+    }
+    if (!nextRegionIfExhausted()) {
+      return -1;
+    }
+    int count = Math.min(length, region.remaining());
+    region.get(bytes, offset, count);
+    return count;
+  }
+
+  @Override
+  public int available() {
+    return region.remaining();
+  }
+
+  @Override
+  public void close() throws IOException {
+    channel.position(position - region.remaining());
+  }
+
+  private boolean nextRegionIfExhausted() throws IOException {
+    while (!region.hasRemaining()) {
+      if (position >= size) {
+        return false;
+      }
+      long length = Math.min(size - position, regionSize);
+      region = channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+      position += length;
+    }
+    return true;
+  }
+}
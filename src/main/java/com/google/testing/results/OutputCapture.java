@@ -0,0 +1,178 @@
+/*
+ * Copyright 2014 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.testing.results;
+
+import com.google.testing.results.AntXmlParser.OutputTruncation;
+import com.google.testing.results.TestSuiteProto.CapturedOutput;
+
+import java.io.IOException;
+
+import javax.xml.stream.XMLStreamException;
+
+/**
+ * Captures the text of one {@code <system-out>} or {@code <system-err>} element, handed over
+ * in chunks, while holding at most the budget plus one chunk in memory.
+ *
+ * <p>Text that fits the budget is kept whole. Once it no longer fits, only the beginning and/or
+ * end chosen by the {@link OutputTruncation} is kept, and if an {@link OutputSpill} is given the
+ * full text is streamed to it from then on.
+ */
+final class OutputCapture {
+  static final String TRUNCATION_MARKER = "\n[...]\n";
+
+  private final int budget;
+  private final int headBudget;
+  private final int tailBudget;
+  private final OutputSpill spill;
+
+  /** All text so far, until it exceeds the budget. */
+  private StringBuilder text = new StringBuilder();
+  private String head;
+  /** Ring buffer with the last {@code tailBudget} characters, once over budget. */
+  private char[] tail;
+  private int tailEnd;
+  private boolean tailFull;
+
+  private long length;
+  private long spillOffset = -1;
+
+  OutputCapture(int budget, OutputTruncation truncation, OutputSpill spill) {
+    this.budget = budget;
+    switch (truncation) {
+      case HEAD:
+        headBudget = budget;
+        break;
+      case TAIL:
+        headBudget = 0;
+        break;
+      default:
+        headBudget = budget / 2;
+    }
+    this.tailBudget = budget - headBudget;
+    this.spill = spill;
+  }
+
+  void append(char[] chars, int start, int count) throws XMLStreamException {
+    length += utf8Length(chars, start, count);
+    if (text != null) {
+      text.append(chars, start, count);
+      if (text.length() > budget) {
+        overflow();
+      }
+      return;
+    }
+    spill(chars, start, count);
+    appendToTail(chars, start, count);
+  }
+
+  CapturedOutput finish() throws XMLStreamException {
+    CapturedOutput.Builder builder = CapturedOutput.newBuilder().setLength(length);
+    if (text != null) {
+      return builder.setText(text.toString()).build();
+    }
+    builder.setText(head + (head.isEmpty() || tailBudget == 0 ? "" : TRUNCATION_MARKER) + tail())
+        .setTruncated(true);
+    if (spillOffset >= 0) {
+      builder.setSpillPath(spill.getPath().toString()).setSpillOffset(spillOffset);
+    }
+    return builder.build();
+  }
+
+  /** Switches from keeping everything to keeping the head and tail. */
+  private void overflow() throws XMLStreamException {
+    int headLength = headBudget;
+    if (headLength > 0 && Character.isHighSurrogate(text.charAt(headLength - 1))) {
+      headLength--;
+    }
+    head = text.substring(0, headLength);
+    tail = new char[tailBudget];
+    char[] kept = new char[text.length()];
+    text.getChars(0, kept.length, kept, 0);
+    text = null;
+    if (spill != null) {
+      try {
+        spillOffset = spill.begin();
+      } catch (IOException e) {
+        throw spillFailed(e);
+      }
+    }
+    spill(kept, 0, kept.length);
+    appendToTail(kept, 0, kept.length);
+  }
+
+  private void spill(char[] chars, int start, int count) throws XMLStreamException {
+    if (spillOffset < 0) {
+      return;
+    }
+    try {
+      spill.write(chars, start, count);
+    } catch (IOException e) {
+      throw spillFailed(e);
+    }
+  }
+
+  private XMLStreamException spillFailed(IOException e) {
+    return new XMLStreamException("Failed to write output to " + spill.getPath(), e);
+  }
+
+  private void appendToTail(char[] chars, int start, int count) {
+    if (tailBudget == 0) {
+      return;
+    }
+    if (count >= tailBudget) {
+      System.arraycopy(chars, start + count - tailBudget, tail, 0, tailBudget);
+      tailEnd = 0;
+      tailFull = true;
+      return;
+    }
+    int first = Math.min(count, tailBudget - tailEnd);
+    System.arraycopy(chars, start, tail, tailEnd, first);
+    System.arraycopy(chars, start + first, tail, 0, count - first);
+    if (tailEnd + count >= tailBudget) {
+      tailFull = true;
+    }
+    tailEnd = (tailEnd + count) % tailBudget;
+  }
+
+  private String tail() {
+    StringBuilder result = new StringBuilder(tailBudget);
+    if (tailFull) {
+      result.append(tail, tailEnd, tailBudget - tailEnd);
+    }
+    result.append(tail, 0, tailEnd);
+    if (result.length() > 0 && Character.isLowSurrogate(result.charAt(0))) {
+      result.deleteCharAt(0);
+    }
+    return result.toString();
+  }
+
+  private static long utf8Length(char[] chars, int start, int count) {
+    long length = 0;
+    for (int i = start; i < start + count; i++) {
+      char c = chars[i];
+      if (c < 0x80) {
+        length++;
+      } else if (c < 0x800 || Character.isSurrogate(c)) {
+        // Each half of a surrogate pair accounts for two of its four bytes.
+        length += 2;
+      } else {
+        length += 3;
+      }
+    }
+    return length;
+  }
+}
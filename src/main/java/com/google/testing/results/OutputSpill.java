@@ -0,0 +1,72 @@
+/*
+ * Copyright 2014 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.testing.results;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.io.CountingOutputStream;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * File that the output too large to keep in memory is written to, created on first use in a
+ * given directory. One instance is used per parsed report, so the outputs in it are written one
+ * after the other and each is identified by its offset.
+ */
+final class OutputSpill implements Closeable {
+  private final Path directory;
+  private Path path;
+  private CountingOutputStream bytes;
+  private Writer writer;
+
+  OutputSpill(Path directory) {
+    this.directory = directory;
+  }
+
+  /** Starts a new output, returning the offset it begins at. */
+  long begin() throws IOException {
+    if (writer == null) {
+      path = Files.createTempFile(directory, "output-", ".txt");
+      bytes = new CountingOutputStream(new BufferedOutputStream(Files.newOutputStream(path)));
+      writer = new OutputStreamWriter(bytes, UTF_8);
+    }
+    writer.flush();
+    return bytes.getCount();
+  }
+
+  void write(char[] chars, int start, int length) throws IOException {
+    writer.write(chars, start, length);
+  }
+
+  /** Returns the file written to, or {@code null} before the first {@link #begin}. */
+  Path getPath() {
+    return path;
+  }
+
+  @Override
+  public void close() throws IOException {
+    if (writer != null) {
+      writer.close();
+    }
+  }
+}
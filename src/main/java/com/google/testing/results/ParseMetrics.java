@@ -0,0 +1,67 @@
+/*
+ * Copyright 2014 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.testing.results;
+
+import com.google.testing.results.TestSuiteProto.TestSuite;
+
+import java.nio.file.Path;
+import java.util.List;
+
+/**
+ * Receives measurements of the parse pipeline, to be fed into monitoring or used to find
+ * pathological reports. Implementations must be thread-safe and cheap, since they are called
+ * from every parsing thread; {@link CountingParseMetrics} keeps totals. {@link #NO_OP} is the
+ * default of {@link DirectoryBasedOutputsCollector} and {@link AntXmlParser}.
+ */
+public interface ParseMetrics {
+  /** Ignores all measurements. */
+  ParseMetrics NO_OP = new ParseMetrics() {
+    @Override
+    public void fileVisited(Path file, boolean accepted) {}
+
+    @Override
+    public void fileParsed(Path file, long bytes, long elapsedNanos, List<TestSuite> testSuites) {}
+
+    @Override
+    public void parseFailed(Path file, Exception error) {}
+
+    @Override
+    public void outputSkipped(long bytes) {}
+  };
+
+  /**
+   * Called for every file the collector visits. {@code accepted} tells whether it was taken
+   * to be a test report.
+   */
+  void fileVisited(Path file, boolean accepted);
+
+  /**
+   * Called when the report {@code file} of {@code bytes} bytes has been parsed into
+   * {@code testSuites}, which took {@code elapsedNanos}. Reports taken from a
+   * {@link CollectionCache} are not parsed.
+   */
+  void fileParsed(Path file, long bytes, long elapsedNanos, List<TestSuite> testSuites);
+
+  /** Called when the report {@code file} could not be read or parsed. */
+  void parseFailed(Path file, Exception error);
+
+  /**
+   * Called by a parser for each report whose {@code <system-out>} and {@code <system-err>}
+   * contents were skipped without decoding, with the number of bytes skipped.
+   */
+  void outputSkipped(long bytes);
+}
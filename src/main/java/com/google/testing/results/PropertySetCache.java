@@ -0,0 +1,106 @@
+/*
+ * Copyright 2014 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.testing.results;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.collect.ImmutableList;
+import com.google.testing.results.TestSuiteProto.Property;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Bounded, thread-safe cache of the {@code <properties>} blocks seen by parsers, keyed by the
+ * names and values of their properties.
+ *
+ * <p>A parser configured with this cache hashes each block as it reads it and, when the block
+ * has been seen before, reports the cached {@link Property} messages instead of building new
+ * ones. Suites sharing a block then share the same message instances, which also makes
+ * {@link SharedPropertySets} lookups cheap.
+ */
+public final class PropertySetCache {
+  public static final long DEFAULT_MAXIMUM_SIZE = 1_000;
+
+  private final Cache<Key, ImmutableList<Property>> propertySets;
+
+  public PropertySetCache() {
+    this(DEFAULT_MAXIMUM_SIZE);
+  }
+
+  /** Creates a cache holding at most {@code maximumSize} distinct blocks. */
+  public PropertySetCache(long maximumSize) {
+    propertySets = CacheBuilder.newBuilder()
+        .maximumSize(maximumSize)
+        .recordStats()
+        .build();
+  }
+
+  /** Returns the hit and miss counts of this cache. */
+  public CacheStats stats() {
+    return propertySets.stats();
+  }
+
+  /**
+   * Returns the properties of a block given as alternating names and values, {@code null}
+   * standing for a missing attribute.
+   */
+  ImmutableList<Property> get(List<String> namesAndValues) {
+    Key key = new Key(namesAndValues.toArray(new String[namesAndValues.size()]));
+    ImmutableList<Property> properties = propertySets.getIfPresent(key);
+    if (properties == null) {
+      ImmutableList.Builder<Property> builder = ImmutableList.builder();
+      for (int i = 0; i < key.namesAndValues.length; i += 2) {
+        Property.Builder property = Property.newBuilder();
+        if (key.namesAndValues[i] != null) {
+          property.setName(key.namesAndValues[i]);
+        }
+        if (key.namesAndValues[i + 1] != null) {
+          property.setValue(key.namesAndValues[i + 1]);
+        }
+        builder.add(property.build());
+      }
+      properties = builder.build();
+      ImmutableList<Property> raced = propertySets.asMap().putIfAbsent(key, properties);
+      if (raced != null) {
+        properties = raced;
+      }
+    }
+    return properties;
+  }
+
+  private static final class Key {
+    final String[] namesAndValues;
+    final int hashCode;
+
+    Key(String[] namesAndValues) {
+      this.namesAndValues = namesAndValues;
+      this.hashCode = Arrays.hashCode(namesAndValues);
+    }
+
+    @Override
+    public int hashCode() {
+      return hashCode;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      return obj instanceof Key && Arrays.equals(namesAndValues, ((Key) obj).namesAndValues);
+    }
+  }
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright 2014 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.testing.results;
+
+import com.google.testing.results.TestResultsProto.TestResults;
+import com.google.testing.results.TestSuiteProto.Property;
+import com.google.testing.results.TestSuiteProto.PropertySet;
+import com.google.testing.results.TestSuiteProto.TestSuite;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Content-addressed table of suite properties. Surefire writes the same system properties into
+ * every suite of a build; this table stores each distinct block once and replaces the copies in
+ * the suites with a {@code shared_property_set_id} reference into
+ * {@code TestResults.shared_property_set}.
+ *
+ * <p>Use {@link #resolve(TestResults)} to expand the references again.
+ */
+public class SharedPropertySets {
+  // Property messages memoize their hash codes, and the ones from a PropertySetCache are the
+  // same instances, so looking up a block is cheap.
+  private final Map<List<Property>, Integer> ids = new HashMap<>();
+  private final List<PropertySet> propertySets = new ArrayList<>();
+
+  /**
+   * Adds the properties of {@code testSuite} to the table unless an identical block is already
+   * there, and returns a copy of the suite referring to it. Suites without properties are
+   * returned as they are.
+   */
+  public TestSuite share(TestSuite testSuite) {
+    if (testSuite.getPropertyCount() == 0 || testSuite.hasSharedPropertySetId()) {
+      return testSuite;
+    }
+    List<Property> properties = testSuite.getPropertyList();
+    Integer id = ids.get(properties);
+    if (id == null) {
+      id = propertySets.size();
+      ids.put(properties, id);
+      propertySets.add(PropertySet.newBuilder().addAllProperty(properties).build());
+    }
+    return testSuite.toBuilder().clearProperty().setSharedPropertySetId(id).build();
+  }
+
+  /** Returns the number of distinct property blocks in the table. */
+  public int size() {
+    return propertySets.size();
+  }
+
+  /** Returns the distinct property blocks, indexed by their id. */
+  List<PropertySet> getPropertySets() {
+    return Collections.unmodifiableList(propertySets);
+  }
+
+  /** Stores the distinct property blocks in {@code results}. */
+  public void addTo(TestResults.Builder results) {
+    results.addAllSharedPropertySet(propertySets);
+  }
+
+  /**
+   * Returns a copy of {@code results} in which every suite referring to a property block holds
+   * its properties again, and without the shared property set table.
+   */
+  public static TestResults resolve(TestResults results) {
+    if (results.getSharedPropertySetCount() == 0) {
+      return results;
+    }
+    TestResults.Builder builder = results.toBuilder().clearSharedPropertySet();
+    for (TestSuite.Builder testSuite : builder.getTestSuiteBuilderList()) {
+      resolve(results.getSharedPropertySetList(), testSuite);
+    }
+    return builder.build();
+  }
+
+  /** Replaces the property block reference of {@code testSuite} with an entry of {@code table}. */
+  static void resolve(List<PropertySet> table, TestSuite.Builder testSuite) {
+    if (testSuite.hasSharedPropertySetId()) {
+      testSuite.addAllProperty(table.get(testSuite.getSharedPropertySetId()).getPropertyList())
+          .clearSharedPropertySetId();
+    }
+  }
+}
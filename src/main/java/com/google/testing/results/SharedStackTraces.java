@@ -0,0 +1,139 @@
+/*
+ * Copyright 2014 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.testing.results;
+
+import com.google.testing.results.TestResultsProto.TestResults;
+import com.google.testing.results.TestSuiteProto.StackTrace;
+import com.google.testing.results.TestSuiteProto.TestCase;
+import com.google.testing.results.TestSuiteProto.TestSuite;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Content-addressed table of stack traces. When a shared fixture breaks, hundreds of test cases
+ * fail with byte-identical stack traces; this table stores each distinct trace once and replaces
+ * the copies in the test cases with a {@code shared_stack_trace_id} reference into
+ * {@code TestResults.shared_stack_trace}.
+ *
+ * <p>Use {@link #resolve(TestResults)} to expand the references again.
+ */
+public class SharedStackTraces {
+  // Keyed by the message itself: protobuf equality and hashing cover every field.
+  private final Map<StackTrace, Integer> ids = new HashMap<>();
+  private final List<StackTrace> stackTraces = new ArrayList<>();
+
+  /** Returns a copy of {@code testSuite} whose stack traces refer to this table. */
+  public TestSuite share(TestSuite testSuite) {
+    TestSuite.Builder builder = null;
+    for (int i = 0; i < testSuite.getTestCaseCount(); i++) {
+      TestCase testCase = testSuite.getTestCase(i);
+      if (testCase.getFailureCount() == 0 && !testCase.hasError()) {
+        continue;
+      }
+      if (builder == null) {
+        builder = testSuite.toBuilder();
+      }
+      builder.setTestCase(i, share(testCase));
+    }
+    return builder == null ? testSuite : builder.build();
+  }
+
+  /** Returns a copy of {@code testCase} whose stack traces refer to this table. */
+  public TestCase share(TestCase testCase) {
+    TestCase.Builder builder = testCase.toBuilder();
+    for (int i = 0; i < builder.getFailureCount(); i++) {
+      builder.setFailure(i, share(builder.getFailure(i)));
+    }
+    if (builder.hasError()) {
+      builder.setError(share(builder.getError()));
+    }
+    return builder.build();
+  }
+
+  /**
+   * Adds {@code stackTrace} to the table unless an identical trace is already there, and
+   * returns a reference to it.
+   */
+  public StackTrace share(StackTrace stackTrace) {
+    if (stackTrace.hasSharedStackTraceId()) {
+      return stackTrace;
+    }
+    Integer id = ids.get(stackTrace);
+    if (id == null) {
+      id = stackTraces.size();
+      ids.put(stackTrace, id);
+      stackTraces.add(stackTrace);
+    }
+    return StackTrace.newBuilder().setSharedStackTraceId(id).build();
+  }
+
+  /** Returns the number of distinct stack traces in the table. */
+  public int size() {
+    return stackTraces.size();
+  }
+
+  /** Returns the distinct stack traces, indexed by their id. */
+  List<StackTrace> getStackTraces() {
+    return Collections.unmodifiableList(stackTraces);
+  }
+
+  /** Stores the distinct stack traces in {@code results}. */
+  public void addTo(TestResults.Builder results) {
+    results.addAllSharedStackTrace(stackTraces);
+  }
+
+  /** Returns the stack trace {@code stackTrace} refers to in {@code results}. */
+  public static StackTrace resolve(TestResults results, StackTrace stackTrace) {
+    if (!stackTrace.hasSharedStackTraceId()) {
+      return stackTrace;
+    }
+    return results.getSharedStackTrace(stackTrace.getSharedStackTraceId());
+  }
+
+  /**
+   * Returns a copy of {@code results} in which every stack trace reference has been replaced by
+   * the trace it refers to, and without the shared stack trace table.
+   */
+  public static TestResults resolve(TestResults results) {
+    if (results.getSharedStackTraceCount() == 0) {
+      return results;
+    }
+    TestResults.Builder builder = results.toBuilder().clearSharedStackTrace();
+    for (TestSuite.Builder testSuite : builder.getTestSuiteBuilderList()) {
+      resolve(results.getSharedStackTraceList(), testSuite);
+    }
+    return builder.build();
+  }
+
+  /** Replaces the stack trace references in {@code testSuite} with entries of {@code table}. */
+  static void resolve(List<StackTrace> table, TestSuite.Builder testSuite) {
+    for (TestCase.Builder testCase : testSuite.getTestCaseBuilderList()) {
+      for (int i = 0; i < testCase.getFailureCount(); i++) {
+        if (testCase.getFailure(i).hasSharedStackTraceId()) {
+          testCase.setFailure(i, table.get(testCase.getFailure(i).getSharedStackTraceId()));
+        }
+      }
+      if (testCase.hasError() && testCase.getError().hasSharedStackTraceId()) {
+        testCase.setError(table.get(testCase.getError().getSharedStackTraceId()));
+      }
+    }
+  }
+}
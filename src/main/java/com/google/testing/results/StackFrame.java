@@ -0,0 +1,94 @@
+/*
+ * Copyright 2014 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.testing.results;
+
+import com.google.testing.results.TestSuiteProto.CodeReference;
+
+import java.io.File;
+
+/**
+ * A single {@code "\tat package.Class.method(File.java:123)"} line of a Java stack trace, split
+ * into the text before the file reference, the reference itself and the text after it.
+ * Instances are immutable so they can be shared through a {@link StackFrameCache}.
+ */
+final class StackFrame {
+  static final String JAVA_STACK_FRAME_PREFIX = "\tat ";
+
+  /** The line up to and including the opening parenthesis. */
+  final String head;
+  final CodeReference codeReference;
+  /** The line from the closing parenthesis to its end, without line terminator. */
+  final String tail;
+
+  private StackFrame(String head, CodeReference codeReference, String tail) {
+    this.head = head;
+    this.codeReference = codeReference;
+    this.tail = tail;
+  }
+
+  /**
+   * Returns the frame described by {@code line}, or {@code null} if the line does not look like
+   * a Java stack frame with a file name and line number.
+   */
+  static StackFrame parse(String line) {
+    return parse(line, null);
+  }
+
+  /** Like {@link #parse(String)}, storing the path from {@code stringPool} unless it is null. */
+  static StackFrame parse(String line, StringPool stringPool) {
+    int openParen = line.lastIndexOf('(');
+    int closeParen = line.lastIndexOf(')');
+    if (!line.startsWith(JAVA_STACK_FRAME_PREFIX) || openParen < 0 || closeParen < 0) {
+      return null;
+    }
+
+    String fileAndLine = line.substring(openParen + 1, closeParen);
+    int colon = fileAndLine.indexOf(':');
+    if (colon <= 0 || colon != fileAndLine.lastIndexOf(':')) {
+      return null;
+    }
+
+    String path;
+    String classAndMethod = line.substring(JAVA_STACK_FRAME_PREFIX.length(), openParen);
+    String fullyQualifiedClassname = classAndMethod
+        .substring(0, classAndMethod.lastIndexOf('.'));
+    String filename = fileAndLine.substring(0, colon);
+    int lastDot = fullyQualifiedClassname.lastIndexOf('.');
+    if (lastDot >= 0) {
+      String directory =
+          fullyQualifiedClassname.substring(0, lastDot).replace('.', File.separatorChar);
+      path = directory + File.separator + filename;
+    } else {
+      path = filename;
+    }
+
+    int lineNumber;
+    try {
+      lineNumber = Integer.parseInt(fileAndLine.substring(colon + 1));
+    } catch (NumberFormatException e) {
+      return null;
+    }
+
+    CodeReference codeReference = CodeReference.newBuilder()
+        .setText(fileAndLine)
+        .setPath(stringPool == null ? path : stringPool.intern(path))
+        .setLineNumber(lineNumber)
+        .build();
+    return new StackFrame(line.substring(0, openParen + 1), codeReference,
+        line.substring(closeParen));
+  }
+}
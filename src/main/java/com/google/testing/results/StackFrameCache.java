@@ -0,0 +1,68 @@
+/*
+ * Copyright 2014 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.testing.results;
+
+import com.google.common.base.Optional;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+
+/**
+ * Bounded, thread-safe cache of parsed stack frames keyed by the frame's line of text.
+ *
+ * <p>The same frames, such as {@code at org.junit.Assert.fail(Assert.java:88)} or the reflection
+ * frames of the test runner, repeat throughout a large report. Sharing one cache between all
+ * parsers of a collection turns decoding such a frame into a hash lookup that returns the
+ * same immutable {@link TestSuiteProto.CodeReference}.
+ */
+public final class StackFrameCache {
+  public static final long DEFAULT_MAXIMUM_SIZE = 10_000;
+
+  private final Cache<String, Optional<StackFrame>> frames;
+
+  public StackFrameCache() {
+    this(DEFAULT_MAXIMUM_SIZE);
+  }
+
+  /** Creates a cache holding at most {@code maximumSize} distinct frame lines. */
+  public StackFrameCache(long maximumSize) {
+    frames = CacheBuilder.newBuilder()
+        .maximumSize(maximumSize)
+        .recordStats()
+        .build();
+  }
+
+  /** Returns the hit and miss counts of this cache. */
+  public CacheStats stats() {
+    return frames.stats();
+  }
+
+  /** Returns the parsed frame for {@code line}, or {@code null} if it is not a stack frame. */
+  StackFrame get(String line) {
+    return get(line, null);
+  }
+
+  /** Like {@link #get(String)}, parsing missing frames with {@code stringPool}. */
+  StackFrame get(String line, StringPool stringPool) {
+    Optional<StackFrame> frame = frames.getIfPresent(line);
+    if (frame == null) {
+      frame = Optional.fromNullable(StackFrame.parse(line, stringPool));
+      frames.put(line, frame);
+    }
+    return frame.orNull();
+  }
+}
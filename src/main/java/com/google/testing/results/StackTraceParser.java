@@ -0,0 +1,147 @@
+/*
+ * Copyright 2014 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.testing.results;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import com.google.testing.results.TestSuiteProto.StackTrace;
+
+import javax.xml.stream.XMLStreamException;
+
+/**
+ * Splits the text of a {@code <failure>} or {@code <error>} element into lines as it arrives and
+ * turns each line into {@code stack_content} entries, so the stack trace never has to be held as
+ * a single string. Lines are terminated by {@code '\n'}, {@code '\r'} or {@code "\r\n"}, exactly
+ * as {@link java.io.BufferedReader#readLine} would split them.
+ */
+class StackTraceParser {
+  private final StackTrace.Builder stackTraceBuilder;
+  private final boolean structure;
+  private final StackFrameCache frameCache;
+  private final StringPool stringPool;
+  private final StringBuilder contentBuilder;
+  private final StringBuilder lineBuilder;
+  private final StringBuilder textBuilder;
+  private boolean skipLineFeed;
+
+  /**
+   * @param retainContent whether the raw text should also be stored in the {@code content}
+   *     field of {@code stackTraceBuilder}
+   * @param frameCache cache to look frames up in, or {@code null} to parse every frame
+   */
+  StackTraceParser(
+      StackTrace.Builder stackTraceBuilder, boolean retainContent, StackFrameCache frameCache) {
+    this(stackTraceBuilder, true, retainContent, frameCache);
+  }
+
+  /**
+   * @param structure whether to split the text into {@code stack_content}; if not, only the
+   *     raw {@code content} is kept and {@code retainContent} must be {@code true}
+   */
+  StackTraceParser(StackTrace.Builder stackTraceBuilder, boolean structure,
+      boolean retainContent, StackFrameCache frameCache) {
+    this(stackTraceBuilder, structure, retainContent, frameCache, null, new StringBuilder(),
+        new StringBuilder(), new StringBuilder());
+  }
+
+  /**
+   * Creates a parser that works in the given buffers, which are cleared first. They must not be
+   * used by anything else until {@link #finish} has returned.
+   *
+   * @param stringPool pool for the paths of parsed frames, or {@code null}
+   */
+  StackTraceParser(StackTrace.Builder stackTraceBuilder, boolean structure,
+      boolean retainContent, StackFrameCache frameCache, StringPool stringPool,
+      StringBuilder textBuilder, StringBuilder lineBuilder, StringBuilder contentBuilder) {
+    checkArgument(structure || retainContent, "Nothing would be kept of the stack trace");
+    this.stackTraceBuilder = stackTraceBuilder;
+    this.structure = structure;
+    this.frameCache = frameCache;
+    this.stringPool = stringPool;
+    this.textBuilder = textBuilder;
+    this.lineBuilder = lineBuilder;
+    this.contentBuilder = retainContent ? contentBuilder : null;
+    textBuilder.setLength(0);
+    lineBuilder.setLength(0);
+    contentBuilder.setLength(0);
+  }
+
+  /** Consumes the next {@code length} characters of the stack trace, starting at {@code start}. */
+  void append(char[] chars, int start, int length) throws XMLStreamException {
+    if (contentBuilder != null) {
+      contentBuilder.append(chars, start, length);
+    }
+    if (!structure) {
+      return;
+    }
+    int lineStart = start;
+    int end = start + length;
+    for (int i = start; i < end; i++) {
+      char c = chars[i];
+      if (c == '\n' && skipLineFeed) {
+        lineStart = i + 1;
+      } else if (c == '\n' || c == '\r') {
+        lineBuilder.append(chars, lineStart, i - lineStart);
+        parseLine(lineBuilder.toString());
+        lineBuilder.setLength(0);
+        lineStart = i + 1;
+      }
+      skipLineFeed = c == '\r';
+    }
+    lineBuilder.append(chars, lineStart, end - lineStart);
+  }
+
+  /** Flushes the last, unterminated line and any pending text to the stack trace builder. */
+  void finish() throws XMLStreamException {
+    if (lineBuilder.length() > 0) {
+      parseLine(lineBuilder.toString());
+      lineBuilder.setLength(0);
+    }
+    if (textBuilder.length() > 0) {
+      stackTraceBuilder.addStackContentBuilder().setText(textBuilder.toString());
+      textBuilder.setLength(0);
+    }
+    if (contentBuilder != null) {
+      stackTraceBuilder.setContent(contentBuilder.toString());
+    }
+  }
+
+  private void parseLine(String line) throws XMLStreamException {
+    StackFrame frame;
+    try {
+      if (!line.startsWith(StackFrame.JAVA_STACK_FRAME_PREFIX)) {
+        frame = null;
+      } else if (frameCache != null) {
+        frame = frameCache.get(line, stringPool);
+      } else {
+        frame = StackFrame.parse(line, stringPool);
+      }
+    } catch (RuntimeException e) {
+      throw new XMLStreamException("Error parsing stack trace on line:\n" + line + "\n", e);
+    }
+    if (frame == null) {
+      textBuilder.append(line).append("\n");
+      return;
+    }
+
+    textBuilder.append(frame.head);
+    stackTraceBuilder.addStackContentBuilder().setText(textBuilder.toString());
+    textBuilder.setLength(0);
+    stackTraceBuilder.addStackContentBuilder().setCodeReference(frame.codeReference);
+    textBuilder.append(frame.tail).append("\n");
+  }
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright 2014 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.testing.results;
+
+import com.google.testing.results.TestSuiteProto.StackContent;
+import com.google.testing.results.TestSuiteProto.StackTrace;
+
+import java.util.List;
+
+import javax.xml.stream.XMLStreamException;
+
+/**
+ * Read access to a {@link StackTrace} that computes its {@code stack_content} on first use.
+ *
+ * <p>With {@link AntXmlParser.Builder#setStructureStackTraces} turned off, the parser only keeps
+ * the raw {@code content} of each failure and error. Consumers that only render counts and
+ * exception messages then never pay for splitting stack frames; those that do need them wrap
+ * the trace in a view, which structures it once and remembers the result. Views are safe to
+ * share between threads.
+ */
+public final class StackTraceView {
+  private final StackTrace stackTrace;
+  private final StackFrameCache frameCache;
+  private volatile StackTrace structured;
+
+  public StackTraceView(StackTrace stackTrace) {
+    this(stackTrace, null);
+  }
+
+  /** Creates a view that looks up stack frames in {@code frameCache}, which may be null. */
+  public StackTraceView(StackTrace stackTrace, StackFrameCache frameCache) {
+    this.stackTrace = stackTrace;
+    this.frameCache = frameCache;
+    if (stackTrace.getStackContentCount() > 0 || !stackTrace.hasContent()) {
+      structured = stackTrace;
+    }
+  }
+
+  public String getExceptionType() {
+    return stackTrace.getExceptionType();
+  }
+
+  public String getExceptionMessage() {
+    return stackTrace.getExceptionMessage();
+  }
+
+  public String getContent() {
+    return stackTrace.getContent();
+  }
+
+  /** Returns the structured stack content, computing it on the first call. */
+  public List<StackContent> getStackContentList() {
+    return toStackTrace().getStackContentList();
+  }
+
+  /** Returns the stack trace with {@code stack_content} filled in. */
+  public StackTrace toStackTrace() {
+    StackTrace result = structured;
+    if (result == null) {
+      // Racing threads compute equal results; publishing either one is fine.
+      result = structure();
+      structured = result;
+    }
+    return result;
+  }
+
+  private StackTrace structure() {
+    StackTrace.Builder builder = stackTrace.toBuilder();
+    StackTraceParser parser = new StackTraceParser(builder, false, frameCache);
+    char[] content = stackTrace.getContent().toCharArray();
+    try {
+      parser.append(content, 0, content.length);
+      parser.finish();
+    } catch (XMLStreamException e) {
+      throw new IllegalStateException(e.getMessage(), e);
+    }
+    return builder.setContent(stackTrace.getContent()).build();
+  }
+}
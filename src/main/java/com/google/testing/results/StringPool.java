@@ -0,0 +1,65 @@
+/*
+ * Copyright 2014 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.testing.results;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+
+/**
+ * Bounded, thread-safe pool of canonical strings.
+ *
+ * <p>Class names, exception types, source paths and property names repeat across every suite of
+ * a large collection. A parser configured with a pool stores the pooled instance of each such
+ * string in the messages it builds, so the collected results hold one copy of each rather than
+ * one per occurrence. Once the pool is full, the least recently used strings are evicted and
+ * their later occurrences start a new canonical instance.
+ */
+public final class StringPool {
+  public static final long DEFAULT_MAXIMUM_SIZE = 100_000;
+
+  private final Cache<String, String> strings;
+
+  public StringPool() {
+    this(DEFAULT_MAXIMUM_SIZE);
+  }
+
+  /** Creates a pool holding at most {@code maximumSize} distinct strings. */
+  public StringPool(long maximumSize) {
+    strings = CacheBuilder.newBuilder()
+        .maximumSize(maximumSize)
+        .recordStats()
+        .build();
+  }
+
+  /** Returns the hit and miss counts of this pool. */
+  public CacheStats stats() {
+    return strings.stats();
+  }
+
+  /** Returns the pooled string equal to {@code string}, adding it if there is none. */
+  public String intern(String string) {
+    String pooled = strings.getIfPresent(string);
+    if (pooled == null) {
+      pooled = strings.asMap().putIfAbsent(string, string);
+      if (pooled == null) {
+        pooled = string;
+      }
+    }
+    return pooled;
+  }
+}
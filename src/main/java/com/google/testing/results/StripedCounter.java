@@ -0,0 +1,50 @@
+/*
+ * Copyright 2014 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.testing.results;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A sum that many threads add to without contending on one memory location. Each thread adds to
+ * one of several cells, picked by its id and kept on separate cache lines; reading the sum adds
+ * up all cells.
+ */
+final class StripedCounter {
+  private static final int STRIPES =
+      Integer.highestOneBit(Math.max(1, Runtime.getRuntime().availableProcessors()) * 2 - 1) * 2;
+  // A cell every 8 longs, so that no two cells share a 64 byte cache line.
+  private static final int SPACING = 8;
+
+  private final AtomicLongArray cells = new AtomicLongArray(STRIPES * SPACING);
+
+  void increment() {
+    add(1);
+  }
+
+  void add(long value) {
+    int stripe = (int) Thread.currentThread().getId() & (STRIPES - 1);
+    cells.addAndGet(stripe * SPACING, value);
+  }
+
+  long sum() {
+    long sum = 0;
+    for (int stripe = 0; stripe < STRIPES; stripe++) {
+      sum += cells.get(stripe * SPACING);
+    }
+    return sum;
+  }
+}
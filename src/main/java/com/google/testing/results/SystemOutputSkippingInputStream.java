@@ -0,0 +1,436 @@
+/*
+ * Copyright 2014 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.testing.results;
+
+import static java.nio.charset.StandardCharsets.US_ASCII;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Removes the contents of {@code <system-out>} and {@code <system-err>} elements from an XML
+ * byte stream, leaving the start and end tags in place.
+ *
+ * <p>Captured output is often most of a report's bytes. Dropping it here means it is scanned
+ * for the closing tag without being decoded into characters or turned into StAX events.
+ * Comments, CDATA sections and processing instructions are recognized both inside and outside
+ * the skipped elements, so a {@code </system-out>} inside them does not end the element early.
+ * Entity references need no special handling since they cannot contain {@code <}. Elements of
+ * the same name nested in a skipped element are counted, so the content ends at the matching
+ * end tag.
+ *
+ * <p>Only valid for encodings in which every ASCII character is encoded as the single byte of
+ * the same value and no other character uses bytes below 0x80, such as UTF-8 and ISO-8859-1.
+ */
+class SystemOutputSkippingInputStream extends FilterInputStream {
+  static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+
+  private static final byte[] COMMENT_START = ascii("<!--");
+  private static final byte[] COMMENT_END = ascii("-->");
+  private static final byte[] CDATA_START = ascii("<![CDATA[");
+  private static final byte[] CDATA_END = ascii("]]>");
+  private static final byte[] PI_START = ascii("<?");
+  private static final byte[] PI_END = ascii("?>");
+  private static final byte[] DOCTYPE_START = ascii("<!DOCTYPE");
+  private static final byte[][] SKIPPED_ELEMENTS = {ascii("system-out"), ascii("system-err")};
+  /** Enough bytes after a '<' to recognize any of the markup above, plus a delimiter. */
+  private static final int LOOKAHEAD = 16;
+
+  private enum State {
+    /** Copying character data and ordinary tags. */
+    CONTENT,
+    /** Copying a comment, CDATA section or processing instruction up to {@link #terminator}. */
+    MARKUP,
+    /** Copying the start tag of a skipped element. */
+    START_TAG,
+    /** Copying a document type declaration, which may have an internal subset. */
+    DOCTYPE,
+    /** Dropping the contents of {@link #skippedElement}. */
+    SKIPPING,
+    /** Dropping a comment, CDATA section or processing instruction inside a skipped element. */
+    SKIPPED_MARKUP,
+    /** Dropping the start tag of an element of the same name inside a skipped element. */
+    SKIPPED_START_TAG,
+  }
+
+  private final byte[] buffer;
+  private int position;
+  private int limit;
+  private boolean endOfInput;
+
+  private final byte[] output;
+  private int outputPosition;
+  private int outputLimit;
+
+  private State state = State.CONTENT;
+  private byte[] terminator;
+  private byte[] skippedElement;
+  private byte quote;
+  private byte previousByte;
+  private int doctypeDepth;
+  private int skippedDepth;
+  private long skippedBytes;
+
+  SystemOutputSkippingInputStream(InputStream in) {
+    this(in, DEFAULT_BUFFER_SIZE);
+  }
+
+  SystemOutputSkippingInputStream(InputStream in, int bufferSize) {
+    super(in);
+    this.buffer = new byte[Math.max(bufferSize, 2 * LOOKAHEAD)];
+    this.output = new byte[buffer.length];
+  }
+
+  /** Returns the number of bytes of element content dropped so far. */
+  long getSkippedBytes() {
+    return skippedBytes;
+  }
+
+  @Override
+  public int read() throws IOException {
+    if (outputPosition == outputLimit && !process()) {
+      return -1;
+    }
+    return output[outputPosition++] & 0xff;
+  }
+
+  @Override
+  public int read(byte[] bytes, int offset, int length) throws IOException {
+    if (length == 0) {
+      return 0;
+    }
+    if (outputPosition == outputLimit && !process()) {
+      return -1;
+    }
+    int count = Math.min(length, outputLimit - outputPosition);
+    System.arraycopy(output, outputPosition, bytes, offset, count);
+    outputPosition += count;
+    return count;
+  }
+
+  @Override
+  public long skip(long count) throws IOException {
+    long skipped = 0;
+    while (skipped < count && read() >= 0) {
+      skipped++;
+    }
+    return skipped;
+  }
+
+  @Override
+  public int available() {
+    return outputLimit - outputPosition;
+  }
+
+  @Override
+  public boolean markSupported() {
+    return false;
+  }
+
+  @Override
+  public synchronized void mark(int readLimit) {}
+
+  @Override
+  public synchronized void reset() throws IOException {
+    throw new IOException("mark/reset not supported");
+  }
+
+  /** Refills the output buffer; returns false at the end of the stream. */
+  private boolean process() throws IOException {
+    outputPosition = 0;
+    outputLimit = 0;
+    while (outputLimit == 0) {
+      if (endOfInput && position == limit) {
+        return false;
+      }
+      fill();
+      scan();
+    }
+    return true;
+  }
+
+  private void fill() throws IOException {
+    if (endOfInput) {
+      return;
+    }
+    if (position > 0) {
+      System.arraycopy(buffer, position, buffer, 0, limit - position);
+      limit -= position;
+      position = 0;
+    }
+    int count = in.read(buffer, limit, buffer.length - limit);
+    if (count < 0) {
+      endOfInput = true;
+    } else {
+      limit += count;
+    }
+  }
+
+  /**
+   * Moves as much of the input buffer as possible to the output buffer, returning early when
+   * more input is needed to decide what comes next.
+   */
+  private void scan() {
+    while (position < limit) {
+      switch (state) {
+        case CONTENT:
+          if (!scanContent()) {
+            return;
+          }
+          break;
+        case MARKUP:
+        case SKIPPED_MARKUP:
+          if (!scanMarkup()) {
+            return;
+          }
+          break;
+        case START_TAG:
+        case SKIPPED_START_TAG:
+          scanStartTag();
+          break;
+        case DOCTYPE:
+          scanDoctype();
+          break;
+        case SKIPPING:
+          if (!scanSkipped()) {
+            return;
+          }
+          break;
+      }
+    }
+  }
+
+  private boolean scanContent() {
+    int lessThan = indexOf((byte) '<');
+    if (lessThan < 0) {
+      copy(limit);
+      return true;
+    }
+    copy(lessThan);
+    if (limit - position < LOOKAHEAD && !endOfInput) {
+      return false;
+    }
+    byte[] element;
+    if (startsWith(COMMENT_START)) {
+      beginMarkup(State.MARKUP, COMMENT_START, COMMENT_END);
+    } else if (startsWith(CDATA_START)) {
+      beginMarkup(State.MARKUP, CDATA_START, CDATA_END);
+    } else if (startsWith(DOCTYPE_START)) {
+      state = State.DOCTYPE;
+      doctypeDepth = 0;
+      quote = 0;
+      copy(position + DOCTYPE_START.length);
+    } else if (startsWith(PI_START)) {
+      beginMarkup(State.MARKUP, PI_START, PI_END);
+    } else if ((element = skippedElementAt(position + 1)) != null) {
+      state = State.START_TAG;
+      skippedElement = element;
+      quote = 0;
+      previousByte = 0;
+      copy(position + 1 + element.length);
+    } else {
+      copy(position + 1);
+    }
+    return true;
+  }
+
+  private boolean scanSkipped() {
+    int lessThan = indexOf((byte) '<');
+    if (lessThan < 0) {
+      drop(limit);
+      return true;
+    }
+    drop(lessThan);
+    if (limit - position < LOOKAHEAD && !endOfInput) {
+      return false;
+    }
+    if (startsWith(CDATA_START)) {
+      beginMarkup(State.SKIPPED_MARKUP, CDATA_START, CDATA_END);
+    } else if (startsWith(COMMENT_START)) {
+      beginMarkup(State.SKIPPED_MARKUP, COMMENT_START, COMMENT_END);
+    } else if (startsWith(PI_START)) {
+      beginMarkup(State.SKIPPED_MARKUP, PI_START, PI_END);
+    } else if (isEndTagOf(skippedElement)) {
+      if (skippedDepth > 0) {
+        skippedDepth--;
+        drop(position + 1);
+      } else {
+        // The end tag itself is copied as ordinary content.
+        state = State.CONTENT;
+        skippedElement = null;
+      }
+    } else if (skippedElementAt(position + 1) == skippedElement) {
+      state = State.SKIPPED_START_TAG;
+      quote = 0;
+      previousByte = 0;
+      drop(position + 1 + skippedElement.length);
+    } else {
+      drop(position + 1);
+    }
+    return true;
+  }
+
+  private void beginMarkup(State markupState, byte[] start, byte[] end) {
+    state = markupState;
+    terminator = end;
+    consume(position + start.length);
+  }
+
+  private boolean scanMarkup() {
+    int end = indexOf(terminator);
+    if (end >= 0) {
+      consume(end + terminator.length);
+      state = state == State.MARKUP ? State.CONTENT : State.SKIPPING;
+      return true;
+    }
+    // Hold back a possible partial terminator at the end of the buffer.
+    int safe = endOfInput ? limit : Math.max(position, limit - terminator.length + 1);
+    consume(safe);
+    return position == limit;
+  }
+
+  private void scanStartTag() {
+    for (int i = position; i < limit; i++) {
+      byte b = buffer[i];
+      if (quote != 0) {
+        if (b == quote) {
+          quote = 0;
+        }
+      } else if (b == '"' || b == '\'') {
+        quote = b;
+      } else if (b == '>') {
+        boolean selfClosing = previousByte == '/';
+        consume(i + 1);
+        if (state == State.START_TAG) {
+          state = selfClosing ? State.CONTENT : State.SKIPPING;
+          skippedDepth = 0;
+        } else {
+          state = State.SKIPPING;
+          if (!selfClosing) {
+            skippedDepth++;
+          }
+        }
+        return;
+      }
+      previousByte = b;
+    }
+    consume(limit);
+  }
+
+  private void scanDoctype() {
+    for (int i = position; i < limit; i++) {
+      byte b = buffer[i];
+      if (quote != 0) {
+        if (b == quote) {
+          quote = 0;
+        }
+      } else if (b == '"' || b == '\'') {
+        quote = b;
+      } else if (b == '[') {
+        doctypeDepth++;
+      } else if (b == ']') {
+        doctypeDepth--;
+      } else if (b == '>' && doctypeDepth <= 0) {
+        copy(i + 1);
+        state = State.CONTENT;
+        return;
+      }
+    }
+    copy(limit);
+  }
+
+  private byte[] skippedElementAt(int nameStart) {
+    for (byte[] name : SKIPPED_ELEMENTS) {
+      if (regionMatches(nameStart, name) && isNameDelimiter(nameStart + name.length)) {
+        return name;
+      }
+    }
+    return null;
+  }
+
+  private boolean isEndTagOf(byte[] name) {
+    return position + 1 < limit && buffer[position + 1] == '/'
+        && regionMatches(position + 2, name) && isNameDelimiter(position + 2 + name.length);
+  }
+
+  private boolean isNameDelimiter(int index) {
+    if (index >= limit) {
+      return false;
+    }
+    byte b = buffer[index];
+    return b == '>' || b == '/' || b == ' ' || b == '\t' || b == '\r' || b == '\n';
+  }
+
+  private boolean startsWith(byte[] pattern) {
+    return regionMatches(position, pattern);
+  }
+
+  private boolean regionMatches(int start, byte[] pattern) {
+    if (start + pattern.length > limit) {
+      return false;
+    }
+    for (int i = 0; i < pattern.length; i++) {
+      if (buffer[start + i] != pattern[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private int indexOf(byte b) {
+    for (int i = position; i < limit; i++) {
+      if (buffer[i] == b) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  private int indexOf(byte[] pattern) {
+    for (int i = position; i + pattern.length <= limit; i++) {
+      if (regionMatches(i, pattern)) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  private void consume(int end) {
+    if (state == State.SKIPPED_MARKUP || state == State.SKIPPED_START_TAG) {
+      drop(end);
+    } else {
+      copy(end);
+    }
+  }
+
+  private void copy(int end) {
+    int count = end - position;
+    System.arraycopy(buffer, position, output, outputLimit, count);
+    outputLimit += count;
+    position = end;
+  }
+
+  private void drop(int end) {
+    skippedBytes += end - position;
+    position = end;
+  }
+
+  private static byte[] ascii(String s) {
+    return s.getBytes(US_ASCII);
+  }
+}
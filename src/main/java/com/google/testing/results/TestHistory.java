@@ -0,0 +1,406 @@
+/*
+ * Copyright 2014 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.testing.results;
+
+import static java.nio.file.StandardOpenOption.APPEND;
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.io.Closer;
+import com.google.common.io.CountingInputStream;
+import com.google.protobuf.InvalidProtocolBufferException;
+import com.google.protobuf.Parser;
+import com.google.testing.results.TestHistoryProto.HistoryRun;
+import com.google.testing.results.TestHistoryProto.HistoryTest;
+import com.google.testing.results.TestResultsProto.TestResults;
+import com.google.testing.results.TestSuiteProto.TestCase;
+import com.google.testing.results.TestSuiteProto.TestStatus;
+import com.google.testing.results.TestSuiteProto.TestSuite;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Append-only store of test outcomes across many runs, kept in a local directory.
+ *
+ * <p>Every appended run adds one row per test case, stored column by column in fixed-width
+ * files that are read through memory mappings. Test class and name are replaced by an id from a
+ * dictionary, and the rows of a run are contiguous, so a row costs 13 bytes on disk and memory
+ * use only grows with the number of distinct tests and runs. Queries such as
+ * {@link #getOutcomes} scan the test id column of the runs they cover.
+ *
+ * <p>A run becomes part of the history once {@link #append} returns; a run interrupted half way
+ * is discarded when the store is opened again. Instances are not thread-safe, and only one
+ * instance may use a directory at a time. See {@code test_history.proto} for the file format.
+ */
+public final class TestHistory implements Closeable {
+  private static final int SEGMENT_ROWS = 1 << 26;
+
+  private final int segmentRows;
+
+  private final Map<String, Integer> testIds = new HashMap<>();
+  private final List<HistoryRun> runs = new ArrayList<>();
+  private final OutputStream testsOut;
+  private final OutputStream runsOut;
+  private final Column testIdColumn;
+  private final Column statusColumn;
+  private final Column elapsedColumn;
+  private long rowCount;
+
+  private TestHistory(Path directory, int segmentRows) throws IOException {
+    this.segmentRows = segmentRows;
+    List<HistoryTest> tests = new ArrayList<>();
+    truncate(directory.resolve("tests.pb"), load(directory.resolve("tests.pb"),
+        HistoryTest.PARSER, tests));
+    for (HistoryTest test : tests) {
+      testIds.put(key(test.getClassName(), test.getName()), testIds.size());
+    }
+    truncate(directory.resolve("runs.pb"), load(directory.resolve("runs.pb"),
+        HistoryRun.PARSER, runs));
+    if (!runs.isEmpty()) {
+      HistoryRun last = runs.get(runs.size() - 1);
+      rowCount = last.getFirstRow() + last.getRowCount();
+    }
+    Closer closer = Closer.create();
+    try {
+      testIdColumn = closer.register(
+          new Column(directory.resolve("test_id.col"), 4, rowCount, segmentRows));
+      statusColumn = closer.register(
+          new Column(directory.resolve("status.col"), 1, rowCount, segmentRows));
+      elapsedColumn = closer.register(
+          new Column(directory.resolve("elapsed.col"), 8, rowCount, segmentRows));
+      testsOut = closer.register(new BufferedOutputStream(
+          Files.newOutputStream(directory.resolve("tests.pb"), CREATE, APPEND)));
+      runsOut = closer.register(
+          Files.newOutputStream(directory.resolve("runs.pb"), CREATE, APPEND));
+    } catch (Throwable e) {
+      // Closes whatever was opened before the failure.
+      try {
+        throw closer.rethrow(e);
+      } finally {
+        closer.close();
+      }
+    }
+  }
+
+  /** Opens the history stored in {@code directory}, creating it if needed. */
+  public static TestHistory open(Path directory) throws IOException {
+    return open(directory, SEGMENT_ROWS);
+  }
+
+  /** Opens the history, reading the columns in mappings of {@code segmentRows} rows each. */
+  static TestHistory open(Path directory, int segmentRows) throws IOException {
+    Files.createDirectories(directory);
+    return new TestHistory(directory, segmentRows);
+  }
+
+  /** Appends a row for every test case in {@code testResults}, as a run called {@code runId}. */
+  public void append(String runId, long timestampMillis, TestResults testResults)
+      throws IOException {
+    long firstRow = rowCount;
+    try {
+      for (TestSuite testSuite : testResults.getTestSuiteList()) {
+        for (TestCase testCase : testSuite.getTestCaseList()) {
+          testIdColumn.putInt(testIdOf(testCase.getClassName(), testCase.getName()));
+          statusColumn.put((byte) testCase.getStatus().getNumber());
+          elapsedColumn.putLong(testCase.getElapsedTimeMillis());
+          rowCount++;
+        }
+      }
+      testsOut.flush();
+      testIdColumn.flush();
+      statusColumn.flush();
+      elapsedColumn.flush();
+    } catch (IOException | RuntimeException e) {
+      // Drops the rows written so far, so that the next run starts right after the last one.
+      rowCount = firstRow;
+      for (Column column : new Column[] {testIdColumn, statusColumn, elapsedColumn}) {
+        try {
+          column.truncate(firstRow);
+        } catch (IOException truncateError) {
+          e.addSuppressed(truncateError);
+        }
+      }
+      throw e;
+    }
+    // Written last: the run only counts once this record is complete.
+    HistoryRun run = HistoryRun.newBuilder()
+        .setRunId(runId)
+        .setTimestampMillis(timestampMillis)
+        .setFirstRow(firstRow)
+        .setRowCount(rowCount - firstRow)
+        .build();
+    run.writeDelimitedTo(runsOut);
+    runsOut.flush();
+    runs.add(run);
+  }
+
+  public int getRunCount() {
+    return runs.size();
+  }
+
+  public long getRowCount() {
+    return rowCount;
+  }
+
+  public int getTestCount() {
+    return testIds.size();
+  }
+
+  /**
+   * Returns the outcomes of one test in the last {@code lastRuns} runs, oldest first. Runs the
+   * test was not part of have no outcome.
+   */
+  public ImmutableList<Outcome> getOutcomes(String className, String name, int lastRuns)
+      throws IOException {
+    Integer testId = testIds.get(key(className, name));
+    int fromRun = Math.max(0, runs.size() - lastRuns);
+    if (testId == null || fromRun == runs.size()) {
+      return ImmutableList.of();
+    }
+    ImmutableList.Builder<Outcome> outcomes = ImmutableList.builder();
+    int run = fromRun;
+    long row = runs.get(fromRun).getFirstRow();
+    while (row < rowCount) {
+      int segment = (int) (row / segmentRows);
+      long segmentStart = (long) segment * segmentRows;
+      IntBuffer ids = testIdColumn.segment(segment, rowCount).asIntBuffer();
+      ByteBuffer statuses = null;
+      ByteBuffer elapsedTimes = null;
+      for (int i = (int) (row - segmentStart); i < ids.limit(); i++) {
+        if (ids.get(i) != testId) {
+          continue;
+        }
+        if (statuses == null) {
+          statuses = statusColumn.segment(segment, rowCount);
+          elapsedTimes = elapsedColumn.segment(segment, rowCount);
+        }
+        long match = segmentStart + i;
+        while (run < runs.size()
+            && match >= runs.get(run).getFirstRow() + runs.get(run).getRowCount()) {
+          run++;
+        }
+        if (run == runs.size() || match < runs.get(run).getFirstRow()) {
+          // Not part of any run.
+          continue;
+        }
+        outcomes.add(new Outcome(runs.get(run), TestStatus.valueOf(statuses.get(i)),
+            elapsedTimes.getLong(i * 8)));
+      }
+      row = segmentStart + ids.limit();
+    }
+    return outcomes.build();
+  }
+
+  @Override
+  public void close() throws IOException {
+    // Closes everything, even if closing one fails.
+    Closer closer = Closer.create();
+    closer.register(testsOut);
+    closer.register(runsOut);
+    closer.register(testIdColumn);
+    closer.register(statusColumn);
+    closer.register(elapsedColumn);
+    closer.close();
+  }
+
+  private int testIdOf(String className, String name) throws IOException {
+    String key = key(className, name);
+    Integer id = testIds.get(key);
+    if (id == null) {
+      id = testIds.size();
+      HistoryTest.newBuilder().setClassName(className).setName(name).build()
+          .writeDelimitedTo(testsOut);
+      testIds.put(key, id);
+    }
+    return id;
+  }
+
+  private static String key(String className, String name) {
+    // NUL cannot occur in XML text, so it cannot be part of either name.
+    return className + '\0' + name;
+  }
+
+  /** Reads the complete records of {@code file}, returning the number of bytes they span. */
+  private static <T> long load(Path file, Parser<T> parser, List<T> records) throws IOException {
+    if (!Files.exists(file)) {
+      return 0;
+    }
+    try (CountingInputStream in =
+        new CountingInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+      long complete = 0;
+      while (true) {
+        T record;
+        try {
+          record = parser.parseDelimitedFrom(in);
+        } catch (InvalidProtocolBufferException e) {
+          // Cut short by an interrupted append.
+          break;
+        }
+        if (record == null) {
+          break;
+        }
+        records.add(record);
+        complete = in.getCount();
+      }
+      return complete;
+    }
+  }
+
+  private static void truncate(Path file, long size) throws IOException {
+    if (Files.exists(file) && Files.size(file) > size) {
+      try (FileChannel channel = FileChannel.open(file, WRITE)) {
+        channel.truncate(size);
+      }
+    }
+  }
+
+  /** The outcome of a test in one run. */
+  public static final class Outcome {
+    private final String runId;
+    private final long timestampMillis;
+    private final TestStatus status;
+    private final long elapsedTimeMillis;
+
+    private Outcome(HistoryRun run, TestStatus status, long elapsedTimeMillis) {
+      this.runId = run.getRunId();
+      this.timestampMillis = run.getTimestampMillis();
+      this.status = status;
+      this.elapsedTimeMillis = elapsedTimeMillis;
+    }
+
+    public String getRunId() {
+      return runId;
+    }
+
+    public long getTimestampMillis() {
+      return timestampMillis;
+    }
+
+    public TestStatus getStatus() {
+      return status;
+    }
+
+    public long getElapsedTimeMillis() {
+      return elapsedTimeMillis;
+    }
+
+    @Override
+    public String toString() {
+      return runId + ": " + status + " in " + elapsedTimeMillis + "ms";
+    }
+  }
+
+  /** A file of fixed-width values, appended to through a buffer and read through mappings. */
+  private static final class Column implements Closeable {
+    private final Path file;
+    private final FileChannel channel;
+    private final int width;
+    private final int segmentRows;
+    private final ByteBuffer pending = ByteBuffer.allocate(64 * 1024);
+    private final List<MappedByteBuffer> segments = new ArrayList<>();
+
+    Column(Path file, int width, long rowCount, int segmentRows) throws IOException {
+      this.file = file;
+      this.width = width;
+      this.segmentRows = segmentRows;
+      this.channel = FileChannel.open(file, CREATE, READ, WRITE);
+      long size = rowCount * width;
+      if (channel.size() < size) {
+        channel.close();
+        throw new IOException("Column " + file + " is shorter than the history");
+      }
+      channel.truncate(size);
+      channel.position(size);
+    }
+
+    void put(byte value) throws IOException {
+      reserve().put(value);
+    }
+
+    void putInt(int value) throws IOException {
+      reserve().putInt(value);
+    }
+
+    void putLong(long value) throws IOException {
+      reserve().putLong(value);
+    }
+
+    private ByteBuffer reserve() throws IOException {
+      if (pending.remaining() < width) {
+        flush();
+      }
+      return pending;
+    }
+
+    /** Drops any pending values and every row from {@code rows} on. */
+    void truncate(long rows) throws IOException {
+      pending.clear();
+      channel.truncate(rows * width);
+      channel.position(rows * width);
+    }
+
+    void flush() throws IOException {
+      pending.flip();
+      while (pending.hasRemaining()) {
+        channel.write(pending);
+      }
+      pending.clear();
+    }
+
+    /** Returns the values of the rows in {@code segment}, given that there are {@code rows}. */
+    ByteBuffer segment(int segment, long rows) throws IOException {
+      long start = (long) segment * segmentRows;
+      long size = Math.min(segmentRows, rows - start) * width;
+      // Segments may be read in any order, so the list is indexed by segment with gaps.
+      while (segments.size() <= segment) {
+        segments.add(null);
+      }
+      MappedByteBuffer mapped = segments.get(segment);
+      if (mapped == null || mapped.capacity() != size) {
+        mapped = channel.map(FileChannel.MapMode.READ_ONLY, start * width, size);
+        segments.set(segment, mapped);
+      }
+      return mapped;
+    }
+
+    @Override
+    public void close() throws IOException {
+      channel.close();
+    }
+
+    @Override
+    public String toString() {
+      return file.toString();
+    }
+  }
+}
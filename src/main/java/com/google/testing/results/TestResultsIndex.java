@@ -0,0 +1,315 @@
+/*
+ * Copyright 2014 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.testing.results;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import com.google.common.collect.ImmutableList;
+import com.google.testing.results.TestResultsProto.TestResults;
+import com.google.testing.results.TestSuiteProto.TestCase;
+import com.google.testing.results.TestSuiteProto.TestStatus;
+import com.google.testing.results.TestSuiteProto.TestSuite;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Secondary indexes over the test cases of a {@link TestResults}, built once so that queries
+ * such as "the slowest ERROR tests in com.foo" do not scan every suite.
+ *
+ * <p>The index holds a bitmap of the test cases with each status, the distinct class names in
+ * sorted order with the test cases of each class next to each other, and the test cases ordered
+ * by elapsed time. A {@link Query} combines the indexes it can use: a class prefix becomes a
+ * range of the sorted classes, a set of statuses becomes a union of bitmaps, and pages ordered by
+ * duration stop as soon as they are full. Building the index is linear in the number of test
+ * cases, apart from sorting by duration. Instances are immutable and thread-safe.
+ */
+public final class TestResultsIndex {
+  /** The order in which matching test cases are returned. */
+  public enum Order {
+    /** The order of the test cases within the results. */
+    INPUT,
+    /** By class name, then in input order. */
+    CLASS_NAME,
+    /** Longest elapsed time first, then in input order. */
+    DURATION
+  }
+
+  private final TestCase[] testCases;
+  private final byte[] statuses;
+  private final BitSet[] statusBitmaps = new BitSet[TestStatus.values().length];
+  private final String[] classNames;
+  // The test cases of classNames[i] are byClass[classStarts[i]] to byClass[classStarts[i + 1]].
+  private final int[] classStarts;
+  private final int[] byClass;
+  private final int[] byDuration;
+
+  public TestResultsIndex(TestResults testResults) {
+    List<TestCase> cases = new ArrayList<>();
+    for (TestSuite testSuite : testResults.getTestSuiteList()) {
+      cases.addAll(testSuite.getTestCaseList());
+    }
+    testCases = cases.toArray(new TestCase[cases.size()]);
+    int count = testCases.length;
+
+    statuses = new byte[count];
+    for (int i = 0; i < statusBitmaps.length; i++) {
+      statusBitmaps[i] = new BitSet(count);
+    }
+    Map<String, Integer> classIds = new HashMap<>();
+    int[] classOfCase = new int[count];
+    for (int i = 0; i < count; i++) {
+      int status = testCases[i].getStatus().getNumber();
+      statuses[i] = (byte) status;
+      statusBitmaps[status].set(i);
+      String className = testCases[i].getClassName();
+      Integer classId = classIds.get(className);
+      if (classId == null) {
+        classId = classIds.size();
+        classIds.put(className, classId);
+      }
+      classOfCase[i] = classId;
+    }
+
+    // Sort the distinct class names only, then counting sort the test cases by class rank.
+    classNames = classIds.keySet().toArray(new String[classIds.size()]);
+    Arrays.sort(classNames);
+    int[] rankOfClass = new int[classNames.length];
+    for (int rank = 0; rank < classNames.length; rank++) {
+      rankOfClass[classIds.get(classNames[rank])] = rank;
+    }
+    classStarts = new int[classNames.length + 1];
+    for (int i = 0; i < count; i++) {
+      classStarts[rankOfClass[classOfCase[i]] + 1]++;
+    }
+    for (int rank = 0; rank < classNames.length; rank++) {
+      classStarts[rank + 1] += classStarts[rank];
+    }
+    int[] next = Arrays.copyOf(classStarts, classNames.length);
+    byClass = new int[count];
+    for (int i = 0; i < count; i++) {
+      byClass[next[rankOfClass[classOfCase[i]]]++] = i;
+    }
+
+    // Sort keys pack the elapsed time above the reversed position, so that reading them
+    // backwards yields the longest first and equal times in input order.
+    long[] keys = new long[count];
+    for (int i = 0; i < count; i++) {
+      long elapsed = Math.max(0, Math.min(Integer.MAX_VALUE, testCases[i].getElapsedTimeMillis()));
+      keys[i] = elapsed << 32 | (count - 1 - i);
+    }
+    Arrays.sort(keys);
+    byDuration = new int[count];
+    for (int i = 0; i < count; i++) {
+      byDuration[i] = count - 1 - (int) keys[count - 1 - i];
+    }
+  }
+
+  public int getTestCaseCount() {
+    return testCases.length;
+  }
+
+  /** Returns the number of test cases that match {@code query}, ignoring its offset and limit. */
+  public int count(Query query) {
+    if (query.classPrefix.isEmpty()) {
+      return statusFilter(query).cardinality();
+    }
+    BitSet matches = classFilter(query);
+    matches.and(statusFilter(query));
+    return matches.cardinality();
+  }
+
+  /** Returns the page of test cases that match {@code query}. */
+  public ImmutableList<TestCase> query(Query query) {
+    ImmutableList.Builder<TestCase> page = ImmutableList.builder();
+    int skip = query.offset;
+    int remaining = query.limit;
+    switch (query.order) {
+      case INPUT: {
+        BitSet matches = statusFilter(query);
+        if (!query.classPrefix.isEmpty()) {
+          matches.and(classFilter(query));
+        }
+        for (int i = matches.nextSetBit(0); i >= 0 && remaining > 0;
+            i = matches.nextSetBit(i + 1)) {
+          if (skip > 0) {
+            skip--;
+          } else {
+            page.add(testCases[i]);
+            remaining--;
+          }
+        }
+        break;
+      }
+      case CLASS_NAME: {
+        int[] range = classRange(query.classPrefix);
+        for (int i = classStarts[range[0]]; i < classStarts[range[1]] && remaining > 0; i++) {
+          if (query.statuses.get(statuses[byClass[i]])) {
+            if (skip > 0) {
+              skip--;
+            } else {
+              page.add(testCases[byClass[i]]);
+              remaining--;
+            }
+          }
+        }
+        break;
+      }
+      case DURATION: {
+        BitSet matches = query.classPrefix.isEmpty() ? null : classFilter(query);
+        for (int i = 0; i < byDuration.length && remaining > 0; i++) {
+          int testCase = byDuration[i];
+          if (query.statuses.get(statuses[testCase])
+              && (matches == null || matches.get(testCase))) {
+            if (skip > 0) {
+              skip--;
+            } else {
+              page.add(testCases[testCase]);
+              remaining--;
+            }
+          }
+        }
+        break;
+      }
+    }
+    return page.build();
+  }
+
+  /** Returns a new bitmap of the test cases with one of the statuses of {@code query}. */
+  private BitSet statusFilter(Query query) {
+    BitSet result = new BitSet(testCases.length);
+    for (int status = query.statuses.nextSetBit(0); status >= 0;
+        status = query.statuses.nextSetBit(status + 1)) {
+      result.or(statusBitmaps[status]);
+    }
+    return result;
+  }
+
+  /** Returns a new bitmap of the test cases in the classes of {@code query}. */
+  private BitSet classFilter(Query query) {
+    BitSet result = new BitSet(testCases.length);
+    int[] range = classRange(query.classPrefix);
+    for (int i = classStarts[range[0]]; i < classStarts[range[1]]; i++) {
+      result.set(byClass[i]);
+    }
+    return result;
+  }
+
+  /** Returns the first and past-the-last rank of the class names starting with {@code prefix}. */
+  private int[] classRange(String prefix) {
+    if (prefix.isEmpty()) {
+      return new int[] {0, classNames.length};
+    }
+    int from = insertionPoint(prefix);
+    int to = from;
+    char last = prefix.charAt(prefix.length() - 1);
+    if (last == Character.MAX_VALUE) {
+      while (to < classNames.length && classNames[to].startsWith(prefix)) {
+        to++;
+      }
+    } else {
+      to = insertionPoint(prefix.substring(0, prefix.length() - 1) + (char) (last + 1));
+    }
+    return new int[] {from, to};
+  }
+
+  private int insertionPoint(String key) {
+    int index = Arrays.binarySearch(classNames, key);
+    return index >= 0 ? index : -index - 1;
+  }
+
+  /** Creates a builder for a query. Without any setters it returns every test case. */
+  public static Query.Builder newQueryBuilder() {
+    return new Query.Builder();
+  }
+
+  /** A filter on test cases together with the order and page to return. */
+  public static final class Query {
+    private final String classPrefix;
+    private final BitSet statuses;
+    private final Order order;
+    private final int offset;
+    private final int limit;
+
+    private Query(Builder builder) {
+      this.classPrefix = builder.classPrefix;
+      this.statuses = new BitSet();
+      for (TestStatus status : builder.statuses) {
+        statuses.set(status.getNumber());
+      }
+      this.order = builder.order;
+      this.offset = builder.offset;
+      this.limit = builder.limit;
+    }
+
+    public static final class Builder {
+      private String classPrefix = "";
+      private Set<TestStatus> statuses = EnumSet.allOf(TestStatus.class);
+      private Order order = Order.INPUT;
+      private int offset;
+      private int limit = Integer.MAX_VALUE;
+
+      private Builder() {}
+
+      /**
+       * Only matches test cases whose class name starts with {@code classPrefix}, such as
+       * {@code "com.foo."} for everything in package {@code com.foo} and its subpackages.
+       */
+      public Builder setClassPrefix(String classPrefix) {
+        this.classPrefix = checkNotNull(classPrefix);
+        return this;
+      }
+
+      /** Only matches test cases with one of {@code statuses}. Defaults to all statuses. */
+      public Builder setStatuses(TestStatus first, TestStatus... rest) {
+        this.statuses = EnumSet.of(first, rest);
+        return this;
+      }
+
+      /** Defaults to {@link Order#INPUT}. */
+      public Builder setOrder(Order order) {
+        this.order = checkNotNull(order);
+        return this;
+      }
+
+      /** Number of matching test cases to skip before the page starts. Defaults to 0. */
+      public Builder setOffset(int offset) {
+        checkArgument(offset >= 0, "offset must not be negative: %s", offset);
+        this.offset = offset;
+        return this;
+      }
+
+      /** Maximum number of test cases to return. Defaults to no limit. */
+      public Builder setLimit(int limit) {
+        checkArgument(limit >= 0, "limit must not be negative: %s", limit);
+        this.limit = limit;
+        return this;
+      }
+
+      public Query build() {
+        return new Query(this);
+      }
+    }
+  }
+}
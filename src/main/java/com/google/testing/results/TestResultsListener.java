@@ -0,0 +1,62 @@
+/*
+ * Copyright 2014 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.testing.results;
+
+import com.google.testing.results.TestSuiteProto.CapturedOutput;
+import com.google.testing.results.TestSuiteProto.Property;
+import com.google.testing.results.TestSuiteProto.TestCase;
+import com.google.testing.results.TestSuiteProto.TestSuite;
+
+/**
+ * Receives the contents of an Ant (Junit task) XML report from {@link AntXmlParser} as it is
+ * being parsed, one element at a time.
+ *
+ * <p>For every {@code <testsuite>} element the parser calls {@link #onSuiteStart} once, then
+ * {@link #onProperty}, {@link #onTestCase}, {@link #onSystemOut} and {@link #onSystemErr} in
+ * document order, and finally {@link #onSuiteEnd}. The parser keeps no reference to the
+ * messages it passes in, so an implementation that drops them immediately processes reports of
+ * any size in constant memory.
+ *
+ * <p>Implementations that only need some of the events can extend
+ * {@link AbstractTestResultsListener}.
+ */
+public interface TestResultsListener {
+
+  /**
+   * Called when a {@code <testsuite>} element starts. {@code suite} carries only the attributes
+   * of the element; it never contains properties or test cases.
+   */
+  void onSuiteStart(TestSuite suite);
+
+  /** Called for each {@code <property>} of the current suite. */
+  void onProperty(Property property);
+
+  /** Called for each fully parsed {@code <testcase>} of the current suite. */
+  void onTestCase(TestCase testCase);
+
+  /**
+   * Called with the {@code <system-out>} of the current suite, if the parser captures output.
+   * Output of individual test cases is part of the {@link TestCase} instead.
+   */
+  void onSystemOut(CapturedOutput output);
+
+  /** Called with the {@code <system-err>} of the current suite, if the parser captures output. */
+  void onSystemErr(CapturedOutput output);
+
+  /** Called when the current {@code <testsuite>} element ends. */
+  void onSuiteEnd();
+}
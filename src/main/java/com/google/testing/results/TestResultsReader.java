@@ -0,0 +1,86 @@
+/*
+ * Copyright 2014 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.testing.results;
+
+import com.google.testing.results.TestResultsProto.TestResults;
+import com.google.testing.results.TestSuiteProto.PropertySet;
+import com.google.testing.results.TestSuiteProto.StackTrace;
+import com.google.testing.results.TestSuiteProto.TestSuite;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * Reads the stream written by {@link DirectoryBasedOutputsCollector#parse(java.nio.file.Path,
+ * java.io.OutputStream)} one test suite at a time, so the whole result set is never in memory.
+ *
+ * <p>Stack traces and properties that were deduplicated into {@code shared_stack_trace} and
+ * {@code shared_property_set} are resolved as the suites are read; only the distinct ones are
+ * retained.
+ */
+public class TestResultsReader implements Closeable {
+  private final InputStream in;
+  private final Deque<TestSuite> pending = new ArrayDeque<>();
+  private final List<StackTrace> sharedStackTraces = new ArrayList<>();
+  private final List<PropertySet> sharedPropertySets = new ArrayList<>();
+  private String buildLog;
+
+  public TestResultsReader(InputStream in) {
+    this.in = in;
+  }
+
+  /** Returns the next test suite, or {@code null} at the end of the stream. */
+  public TestSuite read() throws IOException {
+    while (pending.isEmpty()) {
+      TestResults fragment = TestResults.parseDelimitedFrom(in);
+      if (fragment == null) {
+        return null;
+      }
+      if (fragment.hasBuildLog()) {
+        buildLog = fragment.getBuildLog();
+      }
+      sharedStackTraces.addAll(fragment.getSharedStackTraceList());
+      sharedPropertySets.addAll(fragment.getSharedPropertySetList());
+      for (TestSuite testSuite : fragment.getTestSuiteList()) {
+        if (sharedStackTraces.isEmpty() && sharedPropertySets.isEmpty()) {
+          pending.add(testSuite);
+        } else {
+          TestSuite.Builder resolved = testSuite.toBuilder();
+          SharedStackTraces.resolve(sharedStackTraces, resolved);
+          SharedPropertySets.resolve(sharedPropertySets, resolved);
+          pending.add(resolved.build());
+        }
+      }
+    }
+    return pending.remove();
+  }
+
+  /** Returns the build log read so far, or {@code null} if none has been seen yet. */
+  public String getBuildLog() {
+    return buildLog;
+  }
+
+  @Override
+  public void close() throws IOException {
+    in.close();
+  }
+}
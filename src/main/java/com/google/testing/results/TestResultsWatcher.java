@@ -0,0 +1,286 @@
+/*
+ * Copyright 2014 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.testing.results;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
+import com.google.common.collect.ImmutableList;
+import com.google.testing.results.TestSuiteProto.TestSuite;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * Keeps subscribers up to date with the test results in a directory tree, parsing only the
+ * reports that were added or changed since they were last published.
+ *
+ * <p>Every directory of the tree is registered with a {@link WatchService}, so that new test
+ * directories are noticed too. A report is parsed once no event has arrived for it for the
+ * debounce interval, so a file that is still being written is not parsed over and over.
+ * Reports are parsed with the executor and cache of the {@link DirectoryBasedOutputsCollector}
+ * that created the watcher.
+ *
+ * <p>Events are processed, and subscribers called, on the thread calling
+ * {@link #processEvents} or {@link #run}.
+ *
+ * @see DirectoryBasedOutputsCollector#watch
+ */
+public final class TestResultsWatcher implements Closeable {
+  private static final Logger logger = Logger.getLogger(TestResultsWatcher.class.getName());
+
+  /** Receives the changes to the watched tree. */
+  public interface Subscriber {
+    /**
+     * Called with all suites of a report that is new or has changed. They replace whatever was
+     * published for the same file before.
+     */
+    void onReportChanged(Path file, List<TestSuite> testSuites);
+
+    /** Called when a report that was published before has been deleted or can't be read. */
+    void onReportDeleted(Path file);
+  }
+
+  private final DirectoryBasedOutputsCollector collector;
+  private final Subscriber subscriber;
+  private final long debounceNanos;
+  private final WatchService watchService;
+  private final Map<WatchKey, Path> directories = new HashMap<>();
+  private final Set<Path> registered = new HashSet<>();
+  /** Reports with unpublished events, and the time of their last event, oldest first. */
+  private final Map<Path, Long> pending = new LinkedHashMap<>();
+  /** Size and modification time of every published report. */
+  private final Map<Path, Version> published = new HashMap<>();
+
+  TestResultsWatcher(DirectoryBasedOutputsCollector collector, Path root, long debounce,
+      TimeUnit unit, Subscriber subscriber) throws IOException {
+    this.collector = collector;
+    this.subscriber = subscriber;
+    this.debounceNanos = unit.toNanos(debounce);
+    this.watchService = root.getFileSystem().newWatchService();
+    register(root, Long.MIN_VALUE);
+    publishSettled(System.nanoTime());
+  }
+
+  /** Processes events until the watcher is closed. */
+  public void run() throws IOException, InterruptedException {
+    try {
+      while (true) {
+        processEvents(1, TimeUnit.SECONDS);
+      }
+    } catch (ClosedWatchServiceException e) {
+      // Closed.
+    }
+  }
+
+  /**
+   * Processes events for {@code timeout}, publishing reports as they settle.
+   *
+   * @throws ClosedWatchServiceException if the watcher is closed
+   */
+  public void processEvents(long timeout, TimeUnit unit)
+      throws IOException, InterruptedException {
+    long deadline = System.nanoTime() + unit.toNanos(timeout);
+    while (true) {
+      long now = System.nanoTime();
+      long wait = Math.min(deadline - now, nextSettleTime(now) - now);
+      WatchKey key = wait > 0 ? watchService.poll(wait, NANOSECONDS) : watchService.poll();
+      now = System.nanoTime();
+      if (key != null) {
+        handleEvents(key, now);
+      }
+      publishSettled(now);
+      // Returns even if more events are waiting, so that a busy tree cannot hold the caller.
+      if (now - deadline >= 0) {
+        return;
+      }
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    watchService.close();
+  }
+
+  private void handleEvents(WatchKey key, long now) throws IOException {
+    Path directory = directories.get(key);
+    for (WatchEvent<?> event : key.pollEvents()) {
+      if (event.kind() == OVERFLOW) {
+        // Events were lost; look at everything in the directory again.
+        register(directory, now);
+        continue;
+      }
+      Path path = directory.resolve((Path) event.context());
+      if (event.kind() == ENTRY_CREATE && Files.isDirectory(path)) {
+        // Files may have been created before the directory was registered.
+        register(path, now);
+      } else if (DirectoryBasedOutputsCollector.isTestReport(path)) {
+        pending.remove(path);
+        pending.put(path, now);
+      } else if (event.kind() == ENTRY_DELETE) {
+        // A deleted directory does not report the files it contained.
+        for (Path file : published.keySet()) {
+          if (file.startsWith(path) && !pending.containsKey(file)) {
+            pending.put(file, now);
+          }
+        }
+      }
+    }
+    if (!key.reset()) {
+      registered.remove(directories.remove(key));
+    }
+  }
+
+  /** Registers {@code start} and every directory below it, queueing the reports found. */
+  private void register(Path start, final long now) throws IOException {
+    Files.walkFileTree(start, new SimpleFileVisitor<Path>() {
+      @Override
+      public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs)
+          throws IOException {
+        if (registered.add(dir)) {
+          directories.put(dir.register(watchService, ENTRY_CREATE, ENTRY_MODIFY, ENTRY_DELETE),
+              dir);
+        }
+        return FileVisitResult.CONTINUE;
+      }
+
+      @Override
+      public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+        if (DirectoryBasedOutputsCollector.isTestReport(file) && !pending.containsKey(file)) {
+          pending.put(file, now);
+        }
+        return FileVisitResult.CONTINUE;
+      }
+
+      @Override
+      public FileVisitResult visitFileFailed(Path file, IOException exc) {
+        return FileVisitResult.CONTINUE;
+      }
+    });
+  }
+
+  private long nextSettleTime(long now) {
+    Iterator<Long> lastEvents = pending.values().iterator();
+    return lastEvents.hasNext() ? lastEvents.next() + debounceNanos : now + Long.MAX_VALUE / 2;
+  }
+
+  /** Parses and publishes the reports that have had no events for the debounce interval. */
+  private void publishSettled(long now) throws IOException {
+    List<Path> files = new ArrayList<>();
+    List<Version> previousVersions = new ArrayList<>();
+    List<Future<ImmutableList<TestSuite>>> parsedFiles = new ArrayList<>();
+    Iterator<Map.Entry<Path, Long>> entries = pending.entrySet().iterator();
+    while (entries.hasNext()) {
+      Map.Entry<Path, Long> entry = entries.next();
+      if (entry.getValue() != Long.MIN_VALUE && now - entry.getValue() < debounceNanos) {
+        break;
+      }
+      entries.remove();
+      Path file = entry.getKey();
+      BasicFileAttributes attrs = readAttributes(file);
+      if (attrs == null) {
+        if (published.remove(file) != null) {
+          subscriber.onReportDeleted(file);
+        }
+        continue;
+      }
+      Version version = new Version(attrs);
+      Version previousVersion = published.put(file, version);
+      if (version.equals(previousVersion)) {
+        continue;
+      }
+      files.add(file);
+      previousVersions.add(previousVersion);
+      parsedFiles.add(collector.submitParse(file, attrs));
+    }
+    for (int i = 0; i < files.size(); i++) {
+      Path file = files.get(i);
+      ImmutableList<TestSuite> testSuites;
+      try {
+        testSuites = DirectoryBasedOutputsCollector.getParsedSuites(parsedFiles.get(i));
+      } catch (IOException e) {
+        // Deleted or replaced since its attributes were read. Any replacement has its own event.
+        logger.warning("Failed to read, file = [" + file + "], exc = [" + e + "]");
+        published.remove(file);
+        if (previousVersions.get(i) != null) {
+          subscriber.onReportDeleted(file);
+        }
+        continue;
+      }
+      subscriber.onReportChanged(file, testSuites);
+    }
+  }
+
+  private static BasicFileAttributes readAttributes(Path file) throws IOException {
+    try {
+      BasicFileAttributes attrs = Files.readAttributes(file, BasicFileAttributes.class);
+      return attrs.isRegularFile() ? attrs : null;
+    } catch (NoSuchFileException e) {
+      return null;
+    }
+  }
+
+  /** What identifies a version of a report. */
+  private static final class Version {
+    private final long size;
+    private final FileTime lastModifiedTime;
+
+    Version(BasicFileAttributes attrs) {
+      this.size = attrs.size();
+      this.lastModifiedTime = attrs.lastModifiedTime();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (!(o instanceof Version)) {
+        return false;
+      }
+      Version other = (Version) o;
+      return size == other.size && lastModifiedTime.equals(other.lastModifiedTime);
+    }
+
+    @Override
+    public int hashCode() {
+      return 31 * Long.valueOf(size).hashCode() + lastModifiedTime.hashCode();
+    }
+  }
+}
@@ -0,0 +1,282 @@
+/*
+ * Copyright 2014 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.testing.results;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSortedMap;
+import com.google.testing.results.TestResultsProto.TestResults;
+import com.google.testing.results.TestSuiteProto.TestCase;
+import com.google.testing.results.TestSuiteProto.TestStatus;
+import com.google.testing.results.TestSuiteProto.TestSuite;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Aggregate statistics over test cases, computed in a single pass: totals per status and per
+ * class, duration percentiles and the slowest tests.
+ *
+ * <p>Memory grows only with the number of distinct test classes, so any number of test cases
+ * can be streamed through, either as a {@link TestResultsListener} of {@link AntXmlParser} and
+ * {@link DirectoryBasedOutputsCollector}, or from already parsed messages with {@link #add}.
+ * Instances are not thread-safe; give each worker its own and {@link #merge} them at the end.
+ */
+public final class TestStatistics extends AbstractTestResultsListener {
+  public static final int DEFAULT_SLOWEST_TEST_COUNT = 10;
+
+  // Per-class counters are stored in one array, STRIDE entries per class.
+  private static final int ELAPSED_TIME = TestStatus.values().length;
+  private static final int STRIDE = ELAPSED_TIME + 1;
+
+  private final Map<String, Integer> classIndices = new HashMap<>();
+  private long[] classCounters = new long[16 * STRIDE];
+  private final long[] statusCounts = new long[TestStatus.values().length];
+  private final DurationHistogram durations = new DurationHistogram();
+  private final SlowestTests slowestTests;
+
+  /** Creates statistics that keep the {@value #DEFAULT_SLOWEST_TEST_COUNT} slowest tests. */
+  public TestStatistics() {
+    this(DEFAULT_SLOWEST_TEST_COUNT);
+  }
+
+  public TestStatistics(int slowestTestCount) {
+    checkArgument(slowestTestCount >= 0, "slowestTestCount must not be negative: %s",
+        slowestTestCount);
+    this.slowestTests = new SlowestTests(slowestTestCount);
+  }
+
+  /** Adds the test cases of all suites in {@code testResults}. */
+  public void add(TestResults testResults) {
+    for (TestSuite testSuite : testResults.getTestSuiteList()) {
+      add(testSuite);
+    }
+  }
+
+  public void add(TestSuite testSuite) {
+    for (TestCase testCase : testSuite.getTestCaseList()) {
+      add(testCase);
+    }
+  }
+
+  public void add(TestCase testCase) {
+    long elapsedTimeMillis = testCase.getElapsedTimeMillis();
+    int status = testCase.getStatus().getNumber();
+    statusCounts[status]++;
+    int offset = classOffset(testCase.getClassName());
+    classCounters[offset + status]++;
+    classCounters[offset + ELAPSED_TIME] += elapsedTimeMillis;
+    durations.record(elapsedTimeMillis);
+    if (slowestTests.admits(elapsedTimeMillis)) {
+      slowestTests.add(elapsedTimeMillis, TestCase.newBuilder()
+          .setClassName(testCase.getClassName())
+          .setName(testCase.getName())
+          .setElapsedTimeMillis(elapsedTimeMillis)
+          .setStatus(testCase.getStatus())
+          .build());
+    }
+  }
+
+  /** Adds everything counted by {@code other}, as if its test cases had been added here. */
+  public void merge(TestStatistics other) {
+    for (int i = 0; i < statusCounts.length; i++) {
+      statusCounts[i] += other.statusCounts[i];
+    }
+    for (Map.Entry<String, Integer> entry : other.classIndices.entrySet()) {
+      int offset = classOffset(entry.getKey());
+      int otherOffset = entry.getValue() * STRIDE;
+      for (int i = 0; i < STRIDE; i++) {
+        classCounters[offset + i] += other.classCounters[otherOffset + i];
+      }
+    }
+    durations.merge(other.durations);
+    for (int i = 0; i < other.slowestTests.size; i++) {
+      if (slowestTests.admits(other.slowestTests.keys[i])) {
+        slowestTests.add(other.slowestTests.keys[i], other.slowestTests.values[i]);
+      }
+    }
+  }
+
+  @Override
+  public void onTestCase(TestCase testCase) {
+    add(testCase);
+  }
+
+  public long getTotalCount() {
+    return durations.getTotalCount();
+  }
+
+  public long getCount(TestStatus status) {
+    return statusCounts[status.getNumber()];
+  }
+
+  /** Returns the fraction of test cases that failed or had an error, or 0 without any. */
+  public double getFailureRate() {
+    long total = getTotalCount();
+    return total == 0
+        ? 0
+        : (double) (getCount(TestStatus.FAILED) + getCount(TestStatus.ERROR)) / total;
+  }
+
+  /**
+   * Returns the duration that {@code percentile} percent of the test cases took at most, in
+   * milliseconds. Durations of 32ms and longer are rounded up by less than 1/32.
+   */
+  public long getDurationPercentile(double percentile) {
+    return durations.getPercentile(percentile);
+  }
+
+  /**
+   * Returns the slowest test cases, slowest first, with only their class, name, status and
+   * elapsed time set.
+   */
+  public ImmutableList<TestCase> getSlowestTests() {
+    return slowestTests.toSortedList();
+  }
+
+  /** Returns the totals of each test class, by class name. */
+  public ImmutableSortedMap<String, ClassStatistics> getClassStatistics() {
+    ImmutableSortedMap.Builder<String, ClassStatistics> result = ImmutableSortedMap.naturalOrder();
+    for (Map.Entry<String, Integer> entry : classIndices.entrySet()) {
+      int offset = entry.getValue() * STRIDE;
+      result.put(entry.getKey(), new ClassStatistics(entry.getKey(),
+          Arrays.copyOfRange(classCounters, offset, offset + STRIDE)));
+    }
+    return result.build();
+  }
+
+  private int classOffset(String className) {
+    Integer index = classIndices.get(className);
+    if (index == null) {
+      index = classIndices.size();
+      classIndices.put(className, index);
+      if ((index + 1) * STRIDE > classCounters.length) {
+        classCounters = Arrays.copyOf(classCounters, classCounters.length * 2);
+      }
+    }
+    return index * STRIDE;
+  }
+
+  /** Totals of a single test class. */
+  public static final class ClassStatistics {
+    private final String className;
+    private final long[] counters;
+
+    private ClassStatistics(String className, long[] counters) {
+      this.className = className;
+      this.counters = counters;
+    }
+
+    public String getClassName() {
+      return className;
+    }
+
+    public long getCount(TestStatus status) {
+      return counters[status.getNumber()];
+    }
+
+    public long getTotalCount() {
+      long total = 0;
+      for (int i = 0; i < ELAPSED_TIME; i++) {
+        total += counters[i];
+      }
+      return total;
+    }
+
+    /** Returns the sum of the elapsed times of the class's test cases. */
+    public long getElapsedTimeMillis() {
+      return counters[ELAPSED_TIME];
+    }
+
+    @Override
+    public String toString() {
+      return className + ": " + getTotalCount() + " tests, " + getElapsedTimeMillis() + "ms";
+    }
+  }
+
+  /** Bounded min-heap of the test cases with the longest elapsed times. */
+  private static final class SlowestTests {
+    final long[] keys;
+    final TestCase[] values;
+    int size;
+
+    SlowestTests(int capacity) {
+      keys = new long[capacity];
+      values = new TestCase[capacity];
+    }
+
+    /** Returns whether a test case that took {@code key} would be kept. */
+    boolean admits(long key) {
+      return size < keys.length || (size > 0 && key > keys[0]);
+    }
+
+    void add(long key, TestCase value) {
+      if (size < keys.length) {
+        int i = size++;
+        // Sift up.
+        while (i > 0 && keys[(i - 1) / 2] > key) {
+          keys[i] = keys[(i - 1) / 2];
+          values[i] = values[(i - 1) / 2];
+          i = (i - 1) / 2;
+        }
+        keys[i] = key;
+        values[i] = value;
+        return;
+      }
+      // Replace the root and sift down.
+      int i = 0;
+      while (true) {
+        int child = 2 * i + 1;
+        if (child >= size) {
+          break;
+        }
+        if (child + 1 < size && keys[child + 1] < keys[child]) {
+          child++;
+        }
+        if (keys[child] >= key) {
+          break;
+        }
+        keys[i] = keys[child];
+        values[i] = values[child];
+        i = child;
+      }
+      keys[i] = key;
+      values[i] = value;
+    }
+
+    ImmutableList<TestCase> toSortedList() {
+      Integer[] order = new Integer[size];
+      for (int i = 0; i < size; i++) {
+        order[i] = i;
+      }
+      Arrays.sort(order, new Comparator<Integer>() {
+        @Override
+        public int compare(Integer a, Integer b) {
+          return Long.compare(keys[b], keys[a]);
+        }
+      });
+      ImmutableList.Builder<TestCase> result = ImmutableList.builder();
+      for (Integer i : order) {
+        result.add(values[i]);
+      }
+      return result.build();
+    }
+  }
+}
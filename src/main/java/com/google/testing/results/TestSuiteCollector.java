@@ -0,0 +1,68 @@
+/*
+ * Copyright 2014 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.testing.results;
+
+import com.google.common.collect.ImmutableList;
+import com.google.testing.results.TestSuiteProto.CapturedOutput;
+import com.google.testing.results.TestSuiteProto.Property;
+import com.google.testing.results.TestSuiteProto.TestCase;
+import com.google.testing.results.TestSuiteProto.TestSuite;
+
+/**
+ * {@link TestResultsListener} that assembles the parsed events back into whole
+ * {@link TestSuite} messages.
+ */
+class TestSuiteCollector implements TestResultsListener {
+  private final ImmutableList.Builder<TestSuite> testSuites = ImmutableList.builder();
+  private TestSuite.Builder currentSuite;
+
+  @Override
+  public void onSuiteStart(TestSuite suite) {
+    currentSuite = suite.toBuilder();
+  }
+
+  @Override
+  public void onProperty(Property property) {
+    currentSuite.addProperty(property);
+  }
+
+  @Override
+  public void onTestCase(TestCase testCase) {
+    currentSuite.addTestCase(testCase);
+  }
+
+  @Override
+  public void onSystemOut(CapturedOutput output) {
+    currentSuite.setSystemOut(output);
+  }
+
+  @Override
+  public void onSystemErr(CapturedOutput output) {
+    currentSuite.setSystemErr(output);
+  }
+
+  @Override
+  public void onSuiteEnd() {
+    testSuites.add(currentSuite.build());
+    currentSuite = null;
+  }
+
+  /** Returns the suites completed so far, in document order. */
+  ImmutableList<TestSuite> getTestSuites() {
+    return testSuites.build();
+  }
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright 2014 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.testing.results;
+
+import static com.google.common.truth.Truth.assertThat;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.jimfs.Configuration;
+import com.google.common.jimfs.Jimfs;
+import com.google.testing.results.TestResultsProto.TestResults;
+import com.google.testing.results.TestSuiteProto.TestCase;
+import com.google.testing.results.TestSuiteProto.TestStatus;
+import com.google.testing.results.TestSuiteProto.TestSuite;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.file.FileSystem;
+import java.nio.file.Path;
+import java.util.List;
+
+@RunWith(JUnit4.class)
+public class AntXmlGeneratorTest {
+  private final AntXmlGenerator generator = AntXmlGenerator.newBuilder()
+      .setSeed(42)
+      .setSuiteCount(3)
+      .setTestsPerSuite(100)
+      .setFailureRatio(0.2)
+      .setErrorRatio(0.1)
+      .setSkippedRatio(0.1)
+      .setStackDepth(5)
+      .setPropertyCount(4)
+      .setSystemOutBytes(1000)
+      .setSystemErrBytes(10)
+      .build();
+
+  @Test
+  public void shouldGenerateReportsTheParserAccepts() throws Exception {
+    List<TestSuite> suites = new AntXmlParser().parse(
+        new ByteArrayInputStream(generate(generator)), UTF_8);
+    assertThat(suites).hasSize(3);
+    for (TestSuite suite : suites) {
+      assertThat(suite.getTestCaseCount()).isEqualTo(100);
+      assertThat(suite.getTotalCount()).isEqualTo(100);
+      assertThat(suite.getPropertyCount()).isEqualTo(4);
+      int failures = 0;
+      int errors = 0;
+      int skipped = 0;
+      for (TestCase testCase : suite.getTestCaseList()) {
+        if (testCase.getStatus() == TestStatus.FAILED) {
+          failures++;
+          assertThat(testCase.getFailure(0).getStackContentCount()).isGreaterThan(1);
+        } else if (testCase.getStatus() == TestStatus.ERROR) {
+          errors++;
+        } else if (testCase.getStatus() == TestStatus.SKIPPED) {
+          skipped++;
+        }
+      }
+      assertThat(suite.getFailureCount()).isEqualTo(failures);
+      assertThat(suite.getErrorCount()).isEqualTo(errors);
+      assertThat(suite.getSkippedCount()).isEqualTo(skipped);
+    }
+  }
+
+  @Test
+  public void shouldBeDeterministicForASeed() throws Exception {
+    assertThat(generate(generator)).isEqualTo(generate(generator));
+    AntXmlGenerator otherSeed = AntXmlGenerator.newBuilder()
+        .setSeed(43)
+        .setSuiteCount(3)
+        .setTestsPerSuite(100)
+        .setFailureRatio(0.2)
+        .build();
+    assertThat(generate(otherSeed)).isNotEqualTo(generate(generator));
+  }
+
+  @Test
+  public void shouldGenerateWorkspaceTree() throws Exception {
+    try (FileSystem fileSystem = Jimfs.newFileSystem(Configuration.unix())) {
+      Path root = fileSystem.getPath("/workspace");
+      generator.generateTree(root, 2, 3);
+      TestResults results = new DirectoryBasedOutputsCollector().parse(root);
+      assertThat(results.getBuildLog()).isEqualTo("/workspace/build-log.txt");
+      assertThat(results.getTestSuiteCount()).isEqualTo(2 * 3 * 3);
+    }
+  }
+
+  private static byte[] generate(AntXmlGenerator generator) throws Exception {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    generator.generate(out);
+    return out.toByteArray();
+  }
+}
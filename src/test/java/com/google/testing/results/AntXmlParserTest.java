@@ -20,7 +20,12 @@ package com.google.testing.results;
 import static com.google.common.truth.Truth.assertThat;
 import static java.nio.charset.StandardCharsets.UTF_8;
 
+import com.google.common.io.ByteStreams;
+import com.google.common.jimfs.Configuration;
+import com.google.common.jimfs.Jimfs;
+import com.google.testing.results.AntXmlParser.OutputTruncation;
 import com.google.testing.results.TestSuiteProto.CodeReference;
+import com.google.testing.results.TestSuiteProto.CapturedOutput;
 import com.google.testing.results.TestSuiteProto.Property;
 import com.google.testing.results.TestSuiteProto.StackContent;
 import com.google.testing.results.TestSuiteProto.StackTrace;
@@ -28,6 +33,7 @@ import com.google.testing.results.TestSuiteProto.TestCase;
 import com.google.testing.results.TestSuiteProto.TestStatus;
 import com.google.testing.results.TestSuiteProto.TestSuite;
 
+import org.junit.Assume;
 import org.junit.Before;
 import org.junit.Ignore;
 import org.junit.Rule;
@@ -36,7 +42,28 @@ import org.junit.rules.ExpectedException;
 import org.junit.runner.RunWith;
 import org.junit.runners.JUnit4;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.StringReader;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileSystem;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamReader;
 
 /**
  * @author alexeagle@google.com (Alex Eagle)
@@ -44,6 +71,12 @@ import java.util.List;
 @RunWith(JUnit4.class)
 public class AntXmlParserTest {
 
+  /**
+   * Bytes a passing test case may allocate while being parsed, including its message and
+   * attribute values. About 380 on JDK 17; the parser used to need 565.
+   */
+  private static final long ALLOCATION_BUDGET_PER_TEST_CASE = 512;
+
   @Rule
   public ExpectedException thrown = ExpectedException.none();
   AntXmlParser parser;
@@ -126,6 +159,55 @@ public class AntXmlParserTest {
     assertThat(actual).containsExactly(testSuite, getExpectedFailTestSuite());
   }
 
+  @Test
+  public void shouldReportEventsToListenerInDocumentOrder() throws Exception {
+    final List<String> events = new ArrayList<>();
+    parser.parse(getClass().getResourceAsStream("/multiple-testsuites.xml"), UTF_8,
+        new TestResultsListener() {
+          @Override
+          public void onSuiteStart(TestSuite suite) {
+            assertThat(suite.getPropertyCount()).isEqualTo(0);
+            assertThat(suite.getTestCaseCount()).isEqualTo(0);
+            events.add("start " + suite.getName());
+          }
+
+          @Override
+          public void onProperty(Property property) {
+            events.add("property " + property.getName());
+          }
+
+          @Override
+          public void onTestCase(TestCase testCase) {
+            events.add("testcase " + testCase.getName() + " " + testCase.getStatus());
+          }
+
+          @Override
+          public void onSystemOut(CapturedOutput output) {
+            events.add("system-out");
+          }
+
+          @Override
+          public void onSystemErr(CapturedOutput output) {
+            events.add("system-err");
+          }
+
+          @Override
+          public void onSuiteEnd() {
+            events.add("end");
+          }
+        });
+    assertThat(events).containsExactly(
+        "start com.google.errorprone.matchers.ConstructorOfClassTest",
+        "property java.runtime.name",
+        "property sun.cpu.isalist",
+        "testcase shouldMatchSingleConstructor PASSED",
+        "end",
+        "start com.google.SimpleTest",
+        "testcase testThatFails FAILED",
+        "testcase testThatPasses PASSED",
+        "end").inOrder();
+  }
+
   @Test
   public void shouldParseTestFailure() throws Exception {
     List<TestSuite> actual =
@@ -133,6 +215,210 @@ public class AntXmlParserTest {
     assertThat(actual).containsExactly(getExpectedFailTestSuite());
   }
 
+  @Test
+  public void shouldOmitStackTraceContentWhenNotRetained() throws Exception {
+    parser = AntXmlParser.newBuilder().setRetainStackTraceContent(false).build();
+    List<TestSuite> actual =
+        parser.parse(getClass().getResourceAsStream("/fail.xml"), UTF_8);
+    TestSuite.Builder expected = getExpectedFailTestSuite().toBuilder();
+    expected.getTestCaseBuilder(0).getFailureBuilder(0).clearContent();
+    assertThat(actual).containsExactly(expected.build());
+  }
+
+  @Test
+  public void shouldReuseCachedStackFrames() throws Exception {
+    StackFrameCache cache = new StackFrameCache();
+    parser = AntXmlParser.newBuilder().setStackFrameCache(cache).build();
+    List<TestSuite> first = parser.parse(getClass().getResourceAsStream("/fail.xml"), UTF_8);
+    assertThat(cache.stats().hitCount()).isEqualTo(0L);
+    List<TestSuite> second = parser.parse(getClass().getResourceAsStream("/fail.xml"), UTF_8);
+    assertThat(first).containsExactly(getExpectedFailTestSuite());
+    assertThat(second).containsExactly(getExpectedFailTestSuite());
+    assertThat(cache.stats().hitCount()).isEqualTo(cache.stats().missCount());
+  }
+
+  @Test
+  public void shouldBeSafeToShareBetweenThreads() throws Exception {
+    String[] resources = {"/simple.xml", "/skipped.xml", "/multiple-testsuites.xml", "/fail.xml",
+        "/error.xml", "/error-cause-chain.xml", "/guice-error.xml", "/stack-track-with-link.xml"};
+    final List<byte[]> reports = new ArrayList<>();
+    final List<List<TestSuite>> expected = new ArrayList<>();
+    for (String resource : resources) {
+      byte[] report = ByteStreams.toByteArray(getClass().getResourceAsStream(resource));
+      reports.add(report);
+      expected.add(new AntXmlParser().parse(new ByteArrayInputStream(report), UTF_8));
+    }
+    final AntXmlParser shared =
+        AntXmlParser.newBuilder().setStackFrameCache(new StackFrameCache()).build();
+    int threads = 8;
+    final CountDownLatch start = new CountDownLatch(1);
+    ExecutorService executor = Executors.newFixedThreadPool(threads);
+    try {
+      List<Future<Integer>> mismatches = new ArrayList<>();
+      for (int thread = 0; thread < threads; thread++) {
+        final int offset = thread;
+        mismatches.add(executor.submit(new Callable<Integer>() {
+          @Override
+          public Integer call() throws Exception {
+            start.await();
+            int count = 0;
+            for (int i = 0; i < 200; i++) {
+              int report = (offset + i) % reports.size();
+              List<TestSuite> actual =
+                  shared.parse(new ByteArrayInputStream(reports.get(report)), UTF_8);
+              if (!actual.equals(expected.get(report))) {
+                count++;
+              }
+            }
+            return count;
+          }
+        }));
+      }
+      start.countDown();
+      for (Future<Integer> future : mismatches) {
+        assertThat(future.get()).isEqualTo(0);
+      }
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  @Test
+  public void shouldParseAnotherReportFromListener() throws Exception {
+    final List<TestSuite> nested = new ArrayList<>();
+    TestSuiteCollector collector = new TestSuiteCollector() {
+      @Override
+      public void onTestCase(TestCase testCase) {
+        super.onTestCase(testCase);
+        if (nested.isEmpty()) {
+          try {
+            nested.addAll(parser.parse(getClass().getResourceAsStream("/fail.xml"), UTF_8));
+          } catch (XmlParseException e) {
+            throw new AssertionError(e);
+          }
+        }
+      }
+    };
+    parser.parse(getClass().getResourceAsStream("/fail.xml"), UTF_8, collector);
+    assertThat(collector.getTestSuites()).containsExactly(getExpectedFailTestSuite());
+    assertThat(nested).containsExactly(getExpectedFailTestSuite());
+  }
+
+  @Test
+  public void shouldParseTimeAttributesExactly() throws Exception {
+    assertThat(AntXmlParser.parseMillis("0.068")).isEqualTo(68L);
+    assertThat(AntXmlParser.parseMillis("12")).isEqualTo(12000L);
+    assertThat(AntXmlParser.parseMillis(".5")).isEqualTo(500L);
+    assertThat(AntXmlParser.parseMillis("1.2345")).isEqualTo(1234L);
+    assertThat(AntXmlParser.parseMillis("-0.001")).isEqualTo(-1L);
+    // Float.parseFloat would have made this 123456792.
+    assertThat(AntXmlParser.parseMillis("123456.789")).isEqualTo(123456789L);
+    assertThat(AntXmlParser.parseMillis("1.5E-2")).isEqualTo(15L);
+  }
+
+  @Test
+  public void shouldRejectMalformedTimeAttributes() throws Exception {
+    thrown.expect(NumberFormatException.class);
+    AntXmlParser.parseMillis(".");
+  }
+
+  @Test
+  public void shouldStayWithinAllocationBudgetPerTestCase() throws Exception {
+    ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+    Assume.assumeTrue(threads instanceof com.sun.management.ThreadMXBean);
+    com.sun.management.ThreadMXBean allocations = (com.sun.management.ThreadMXBean) threads;
+    Assume.assumeTrue(allocations.isThreadAllocatedMemorySupported());
+    allocations.setThreadAllocatedMemoryEnabled(true);
+
+    int testCount = 20 * 500;
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    AntXmlGenerator.newBuilder()
+        .setSuiteCount(20)
+        .setTestsPerSuite(500)
+        .setPropertyCount(5)
+        .build()
+        .generate(out);
+    byte[] report = out.toByteArray();
+    TestResultsListener discard = new AbstractTestResultsListener() {};
+    long threadId = Thread.currentThread().getId();
+    long lowest = Long.MAX_VALUE;
+    // The lowest of several runs, once the parser's per-thread state exists.
+    for (int run = 0; run < 5; run++) {
+      long before = allocations.getThreadAllocatedBytes(threadId);
+      parser.parse(new ByteArrayInputStream(report), UTF_8, discard);
+      lowest = Math.min(lowest, allocations.getThreadAllocatedBytes(threadId) - before);
+    }
+    assertThat(lowest / testCount).isLessThan(ALLOCATION_BUDGET_PER_TEST_CASE);
+  }
+
+  @Test
+  public void shouldReuseCachedPropertySets() throws Exception {
+    PropertySetCache cache = new PropertySetCache();
+    parser = AntXmlParser.newBuilder().setPropertySetCache(cache).build();
+    List<TestSuite> first = parser.parse(getClass().getResourceAsStream("/simple.xml"), UTF_8);
+    List<TestSuite> second = parser.parse(getClass().getResourceAsStream("/simple.xml"), UTF_8);
+    assertThat(first).isEqualTo(
+        new AntXmlParser().parse(getClass().getResourceAsStream("/simple.xml"), UTF_8));
+    assertThat(second).isEqualTo(first);
+    assertThat(second.get(0).getProperty(0)).isSameAs(first.get(0).getProperty(0));
+    assertThat(cache.stats().hitCount()).isEqualTo(1L);
+  }
+
+  @Test
+  public void shouldParsePathWithBufferedAndMappedReads() throws Exception {
+    Path path = Paths.get(getClass().getResource("/fail.xml").toURI());
+    AntXmlParser buffered =
+        AntXmlParser.newBuilder().setMemoryMapThreshold(Long.MAX_VALUE).build();
+    AntXmlParser mapped = AntXmlParser.newBuilder().setMemoryMapThreshold(0).build();
+    assertThat(buffered.parse(path, UTF_8)).containsExactly(getExpectedFailTestSuite());
+    assertThat(mapped.parse(path, UTF_8)).containsExactly(getExpectedFailTestSuite());
+  }
+
+  @Test
+  public void shouldReadMappedFileAcrossRegions() throws Exception {
+    Path path = Paths.get(getClass().getResource("/fail.xml").toURI());
+    try (FileChannel channel = FileChannel.open(path)) {
+      channel.position(10);
+      InputStream in = MappedInputStream.open(channel, 7);
+      byte[] expected = Files.readAllBytes(path);
+      assertThat(ByteStreams.toByteArray(in))
+          .isEqualTo(Arrays.copyOfRange(expected, 10, expected.length));
+    }
+  }
+
+  @Test
+  public void shouldMoveChannelPositionPastMappedBytesRead() throws Exception {
+    Path path = Paths.get(getClass().getResource("/fail.xml").toURI());
+    try (FileChannel channel = FileChannel.open(path)) {
+      channel.position(10);
+      InputStream in = MappedInputStream.open(channel, 7);
+      ByteStreams.skipFully(in, 12);
+      assertThat(channel.position()).isEqualTo(10);
+      in.close();
+      assertThat(channel.position()).isEqualTo(22);
+
+      channel.position(0);
+      AntXmlParser.newBuilder().setMemoryMapThreshold(0).build()
+          .parse(channel, UTF_8, new TestSuiteCollector());
+      assertThat(channel.position()).isEqualTo(channel.size());
+    }
+  }
+
+  @Test
+  public void shouldStructureStackTracesLazily() throws Exception {
+    parser = AntXmlParser.newBuilder().setStructureStackTraces(false).build();
+    List<TestSuite> actual =
+        parser.parse(getClass().getResourceAsStream("/fail.xml"), UTF_8);
+    StackTrace expected = getExpectedFailTestSuite().getTestCase(0).getFailure(0);
+    StackTrace unstructured = actual.get(0).getTestCase(0).getFailure(0);
+    assertThat(unstructured).isEqualTo(expected.toBuilder().clearStackContent().build());
+
+    StackTraceView view = new StackTraceView(unstructured);
+    assertThat(view.getStackContentList()).isEqualTo(expected.getStackContentList());
+    assertThat(view.toStackTrace()).isSameAs(view.toStackTrace());
+    assertThat(view.toStackTrace()).isEqualTo(expected);
+  }
+
   private TestSuite getExpectedFailTestSuite() {
     return TestSuite.newBuilder()
         .setName("com.google.SimpleTest")
@@ -492,6 +778,23 @@ public class AntXmlParserTest {
 
   }
 
+  @Test
+  public void shouldConfigureTheRegisteredStaxProvider() throws Exception {
+    // Aalto is on the test class path, so on Java 7 and 8 it is what newInstance() returns.
+    XMLInputFactory registered = XMLInputFactory.newInstance();
+    assertThat(registered.getClass().getName()).startsWith("com.fasterxml.aalto.");
+    XMLInputFactory factory = AntXmlParser.configure(registered);
+    assertThat(factory.getProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES))
+        .isEqualTo(false);
+    XMLStreamReader reader =
+        factory.createXMLStreamReader(new StringReader("<testsuite name=\"a\"/>"));
+    while (reader.hasNext()) {
+      reader.next();
+    }
+    // Whatever it falls back to on this JVM.
+    AntXmlParser.configure(AntXmlParser.newLegacyJdkFactory());
+  }
+
   @Test
   public void shouldParseStackTraceWithoutPackageName() throws Exception {
     List<TestSuite> actual = parser.parse(
@@ -632,4 +935,80 @@ public class AntXmlParserTest {
             .build();
     assertThat(actual.get(0)).isEqualTo(expected);
   }
+
+  private static final String REPORT_WITH_OUTPUT = "<testsuite name=\"Chatty\" tests=\"1\">"
+      + "<testcase classname=\"Chatty\" name=\"talks\">"
+      + "<system-out>0123456789abcdefghij</system-out>"
+      + "<system-err><![CDATA[<oops>]]></system-err>"
+      + "</testcase>"
+      + "<system-out>suite &amp; done</system-out>"
+      + "</testsuite>";
+
+  @Test
+  public void shouldCaptureOutputWhenEnabled() throws Exception {
+    AntXmlParser capturing = AntXmlParser.newBuilder().setCaptureOutput(true).build();
+    TestSuite suite = capturing.parse(
+        new ByteArrayInputStream(REPORT_WITH_OUTPUT.getBytes(UTF_8)), UTF_8).get(0);
+    assertThat(suite.getSystemOut()).isEqualTo(
+        CapturedOutput.newBuilder().setText("suite & done").setLength(12).build());
+    assertThat(suite.hasSystemErr()).isFalse();
+    TestCase testCase = suite.getTestCase(0);
+    assertThat(testCase.getSystemOut().getText()).isEqualTo("0123456789abcdefghij");
+    assertThat(testCase.getSystemOut().getTruncated()).isFalse();
+    assertThat(testCase.getSystemErr().getText()).isEqualTo("<oops>");
+
+    TestSuite skipped =
+        parser.parse(new ByteArrayInputStream(REPORT_WITH_OUTPUT.getBytes(UTF_8)), UTF_8).get(0);
+    assertThat(skipped.hasSystemOut()).isFalse();
+    assertThat(skipped.getTestCase(0).hasSystemOut()).isFalse();
+  }
+
+  @Test
+  public void shouldTruncateOutputOverBudget() throws Exception {
+    assertThat(captureWithBudget(OutputTruncation.HEAD).getText()).isEqualTo("01234567");
+    assertThat(captureWithBudget(OutputTruncation.TAIL).getText()).isEqualTo("cdefghij");
+    CapturedOutput headAndTail = captureWithBudget(OutputTruncation.HEAD_AND_TAIL);
+    assertThat(headAndTail.getText()).isEqualTo("0123\n[...]\nghij");
+    assertThat(headAndTail.getTruncated()).isTrue();
+    assertThat(headAndTail.getLength()).isEqualTo(20);
+    assertThat(headAndTail.hasSpillPath()).isFalse();
+  }
+
+  private static CapturedOutput captureWithBudget(OutputTruncation truncation)
+      throws Exception {
+    AntXmlParser capturing = AntXmlParser.newBuilder()
+        .setCaptureOutput(true)
+        .setOutputBudget(8)
+        .setOutputTruncation(truncation)
+        .build();
+    return capturing.parse(new ByteArrayInputStream(REPORT_WITH_OUTPUT.getBytes(UTF_8)), UTF_8)
+        .get(0).getTestCase(0).getSystemOut();
+  }
+
+  @Test
+  public void shouldSpillOutputOverBudget() throws Exception {
+    FileSystem fileSystem = Jimfs.newFileSystem(Configuration.unix());
+    Path spillDirectory = Files.createDirectory(fileSystem.getPath("/spill"));
+    AntXmlParser capturing = AntXmlParser.newBuilder()
+        .setCaptureOutput(true)
+        .setOutputBudget(6)
+        .setOutputSpillDirectory(spillDirectory)
+        .build();
+    TestSuite suite = capturing.parse(
+        new ByteArrayInputStream(REPORT_WITH_OUTPUT.getBytes(UTF_8)), UTF_8).get(0);
+
+    CapturedOutput testOutput = suite.getTestCase(0).getSystemOut();
+    CapturedOutput suiteOutput = suite.getSystemOut();
+    assertThat(testOutput.getText()).isEqualTo("012\n[...]\nhij");
+    assertThat(suiteOutput.getText()).isEqualTo("sui\n[...]\none");
+    assertThat(suite.getTestCase(0).getSystemErr().hasSpillPath()).isFalse();
+    assertThat(suiteOutput.getSpillPath()).isEqualTo(testOutput.getSpillPath());
+    byte[] spilled = Files.readAllBytes(fileSystem.getPath(testOutput.getSpillPath()));
+    assertThat(spill(spilled, testOutput)).isEqualTo("0123456789abcdefghij");
+    assertThat(spill(spilled, suiteOutput)).isEqualTo("suite & done");
+  }
+
+  private static String spill(byte[] spilled, CapturedOutput output) {
+    return new String(spilled, (int) output.getSpillOffset(), (int) output.getLength(), UTF_8);
+  }
 }
@@ -0,0 +1,167 @@
+/*
+ * Copyright 2014 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.testing.results;
+
+import static com.google.common.truth.Truth.assertThat;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.io.ByteStreams;
+import com.google.testing.results.TestSuiteProto.TestCase;
+import com.google.testing.results.TestSuiteProto.TestSuite;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+@RunWith(JUnit4.class)
+public class AsyncAntXmlParserTest {
+  private static final String[] REPORTS = {"/simple.xml", "/simpleWithComments.xml",
+      "/multiple-testsuites.xml", "/fail.xml", "/error.xml", "/skipped.xml", "/invalid.xml",
+      "/guice-error.xml", "/error-cause-chain.xml", "/stack-track-with-link.xml",
+      "/no-package-name-stacktrace.xml", "/stack-with-artifact-lines.xml"};
+
+  @Rule
+  public ExpectedException thrown = ExpectedException.none();
+
+  private final AntXmlParser parser = new AntXmlParser();
+
+  @Test
+  public void shouldParseTheSameAsTheBlockingParser() throws Exception {
+    for (String report : REPORTS) {
+      byte[] bytes = ByteStreams.toByteArray(getClass().getResourceAsStream(report));
+      List<TestSuite> expected = parser.parse(new ByteArrayInputStream(bytes), UTF_8);
+      for (int chunkSize : new int[] {1, 7, bytes.length}) {
+        assertThat(parseInChunks(parser, bytes, chunkSize)).isEqualTo(expected);
+      }
+    }
+  }
+
+  @Test
+  public void shouldCaptureOutputLikeTheBlockingParser() throws Exception {
+    ByteArrayOutputStream report = new ByteArrayOutputStream();
+    AntXmlGenerator.newBuilder()
+        .setSuiteCount(2)
+        .setFailureRatio(0.5)
+        .setSystemOutBytes(5000)
+        .setSystemErrBytes(500)
+        .build()
+        .generate(report);
+    byte[] bytes = report.toByteArray();
+    AntXmlParser capturing =
+        AntXmlParser.newBuilder().setCaptureOutput(true).setOutputBudget(1000).build();
+    List<TestSuite> expected = capturing.parse(new ByteArrayInputStream(bytes), UTF_8);
+    assertThat(expected.get(0).getSystemOut().getTruncated()).isTrue();
+    assertThat(parseInChunks(capturing, bytes, 999)).isEqualTo(expected);
+  }
+
+  @Test
+  public void shouldParseCdataLikeTheBlockingParser() throws Exception {
+    byte[] bytes = ("<testsuite name=\"Cdata\">"
+        + "<testcase classname=\"Cdata\" name=\"fails\">"
+        + "<failure type=\"java.lang.AssertionError\"><![CDATA[java.lang.AssertionError: <a>\n"
+        + "\tat Cdata.fails(Cdata.java:3)\n]]></failure></testcase>"
+        + "<testcase classname=\"Cdata\" name=\"skipped\">"
+        + "<skipped>not <![CDATA[<now>]]></skipped></testcase>"
+        + "</testsuite>").getBytes(UTF_8);
+    List<TestSuite> expected = parser.parse(new ByteArrayInputStream(bytes), UTF_8);
+    assertThat(expected.get(0).getTestCase(0).getFailure(0).getContent())
+        .startsWith("java.lang.AssertionError: <a>");
+    assertThat(expected.get(0).getTestCase(1).getSkippedMessage()).isEqualTo("not <now>");
+    for (int chunkSize : new int[] {1, 7, bytes.length}) {
+      assertThat(parseInChunks(parser, bytes, chunkSize)).isEqualTo(expected);
+    }
+  }
+
+  @Test
+  public void shouldShareCachedPropertySetsWithTheBlockingParser() throws Exception {
+    byte[] bytes = ByteStreams.toByteArray(getClass().getResourceAsStream("/simple.xml"));
+    AntXmlParser caching =
+        AntXmlParser.newBuilder().setPropertySetCache(new PropertySetCache()).build();
+    List<TestSuite> expected = caching.parse(new ByteArrayInputStream(bytes), UTF_8);
+    List<TestSuite> actual = parseInChunks(caching, bytes, 7);
+    assertThat(actual).isEqualTo(expected);
+    assertThat(actual.get(0).getPropertyCount()).isGreaterThan(0);
+    assertThat(actual.get(0).getProperty(0)).isSameAs(expected.get(0).getProperty(0));
+  }
+
+  @Test
+  public void shouldReportTestCasesBeforeTheReportIsComplete() throws Exception {
+    String complete = "<testsuite name=\"Live\"><testcase classname=\"Live\" name=\"first\"/>";
+    final List<String> events = new ArrayList<>();
+    AsyncAntXmlParser asyncParser = parser.newAsyncParser(new AbstractTestResultsListener() {
+      @Override
+      public void onSuiteStart(TestSuite suite) {
+        events.add("start " + suite.getName());
+      }
+
+      @Override
+      public void onTestCase(TestCase testCase) {
+        events.add("testcase " + testCase.getName());
+      }
+
+      @Override
+      public void onSuiteEnd() {
+        events.add("end");
+      }
+    });
+    feed(asyncParser, complete + "<testcase classname=\"Live\" name=\"sec");
+    assertThat(events).containsExactly("start Live", "testcase first").inOrder();
+    feed(asyncParser, "ond\"/></testsuite>");
+    asyncParser.endOfInput();
+    assertThat(events).containsExactly("start Live", "testcase first", "testcase second", "end")
+        .inOrder();
+  }
+
+  @Test
+  public void shouldRaiseXmlParseErrorForUnsupportedElement() throws Exception {
+    thrown.expect(XmlParseException.class);
+    thrown.expectMessage("Element <testsuite> should not contain element <testsuite>.");
+    parseInChunks(parser, ByteStreams.toByteArray(
+        getClass().getResourceAsStream("/unsupported_testsuite_element.xml")), 10);
+  }
+
+  @Test
+  public void shouldRaiseXmlParseErrorForTruncatedReport() throws Exception {
+    thrown.expect(XmlParseException.class);
+    thrown.expectMessage("Unexpected end of input");
+    parseInChunks(parser, "<testsuite><testcase name=\"a\">".getBytes(UTF_8), 10);
+  }
+
+  private static List<TestSuite> parseInChunks(AntXmlParser parser, byte[] bytes, int chunkSize)
+      throws XmlParseException {
+    TestSuiteCollector collector = new TestSuiteCollector();
+    AsyncAntXmlParser asyncParser = parser.newAsyncParser(collector);
+    for (int start = 0; start < bytes.length; start += chunkSize) {
+      asyncParser.feed(bytes, start, Math.min(chunkSize, bytes.length - start));
+    }
+    asyncParser.endOfInput();
+    return collector.getTestSuites();
+  }
+
+  private static void feed(AsyncAntXmlParser asyncParser, String chunk)
+      throws XmlParseException {
+    byte[] bytes = chunk.getBytes(UTF_8);
+    asyncParser.feed(bytes, 0, bytes.length);
+  }
+}
@@ -19,22 +19,56 @@ package com.google.testing.results;
 import static java.nio.charset.StandardCharsets.UTF_8;
 import static java.nio.file.Files.write;
 import static java.util.Arrays.asList;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
 import static org.hamcrest.CoreMatchers.is;
 import static org.junit.Assert.assertThat;
 
+import com.google.common.base.Strings;
+import com.google.common.io.ByteStreams;
 import com.google.common.jimfs.Configuration;
 import com.google.common.jimfs.Jimfs;
+import com.google.common.jimfs.WatchServiceConfiguration;
+import com.google.common.util.concurrent.ForwardingExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.Uninterruptibles;
 import com.google.testing.results.TestResultsProto.TestResults;
+import com.google.testing.results.TestSuiteProto.Property;
+import com.google.testing.results.TestSuiteProto.StackContent;
+import com.google.testing.results.TestSuiteProto.StackTrace;
+import com.google.testing.results.TestSuiteProto.TestCase;
 import com.google.testing.results.TestSuiteProto.TestSuite;
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
 import org.junit.After;
 import org.junit.Before;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 import org.junit.runner.RunWith;
 import org.junit.runners.JUnit4;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
 import java.nio.file.FileSystem;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
 
 /**
  * @author alexeagle@google.com (Alex Eagle)
@@ -42,6 +76,8 @@ import java.nio.file.Path;
 @RunWith(JUnit4.class)
 public class DirectoryBasedOutputsCollectorTest {
 
+  @Rule public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
   private FileSystem inMemFileSystem;
 
   @Before
@@ -99,4 +135,543 @@ public class DirectoryBasedOutputsCollectorTest {
         .build();
     assertThat(testResults, is(expected));
   }
+
+  @Test
+  public void testParallelCollectionMatchesSerialOrder() throws Exception {
+    Path root = Files.createDirectory(inMemFileSystem.getPath("/012345"));
+    Path reports = Files.createDirectories(root.resolve("tests/target/surefire-reports"));
+    for (int i = 0; i < 50; i++) {
+      write(reports.resolve("TEST-com.google.Test" + i + ".xml"), asList(
+          "<?xml version=\"1.0\" encoding=\"UTF-8\" ?>",
+          "<testsuite name=\"Test" + i + "\" tests=\"1\">",
+          "<testcase classname=\"com.google.Test" + i + "\" name=\"testIt\" time=\"0.01\"/>",
+          "</testsuite>"
+      ), UTF_8);
+    }
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    try {
+      TestResults serial = new DirectoryBasedOutputsCollector().parse(root);
+      TestResults parallel = new DirectoryBasedOutputsCollector(executor).parse(root);
+      assertThat(serial.getTestSuiteCount(), is(50));
+      assertThat(parallel, is(serial));
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  @Test
+  public void testDeduplicatesIdenticalStackTraces() throws Exception {
+    Path root = Files.createDirectory(inMemFileSystem.getPath("/012345"));
+    Path reports = Files.createDirectories(root.resolve("tests/target/surefire-reports"));
+    byte[] failingReport = ByteStreams.toByteArray(getClass().getResourceAsStream("/fail.xml"));
+    for (int i = 0; i < 3; i++) {
+      Files.write(reports.resolve("TEST-com.google.SimpleTest" + i + ".xml"), failingReport);
+    }
+    TestResults full = new DirectoryBasedOutputsCollector().parse(root);
+    TestResults deduplicated = DirectoryBasedOutputsCollector.newBuilder()
+        .setDeduplicateStackTraces(true)
+        .build()
+        .parse(root);
+    assertThat(deduplicated.getSharedStackTraceCount(), is(1));
+    assertThat(deduplicated.getTestSuite(2).getTestCase(0).getFailure(0).getSharedStackTraceId(),
+        is(0));
+    assertThat(SharedStackTraces.resolve(deduplicated), is(full));
+  }
+
+  @Test
+  public void testDeduplicatesIdenticalPropertySets() throws Exception {
+    Path root = Files.createDirectory(inMemFileSystem.getPath("/012345"));
+    Path reports = Files.createDirectories(root.resolve("tests/target/surefire-reports"));
+    for (int i = 0; i < 4; i++) {
+      write(reports.resolve("TEST-com.google.Test" + i + ".xml"), asList(
+          "<testsuite name=\"Test" + i + "\">",
+          "<properties>",
+          "<property name=\"java.version\" value=\"" + (i == 3 ? "1.8" : "1.7") + "\"/>",
+          "<property name=\"os.name\" value=\"Linux\"/>",
+          "</properties>",
+          "</testsuite>"
+      ), UTF_8);
+    }
+    DirectoryBasedOutputsCollector collector = DirectoryBasedOutputsCollector.newBuilder()
+        .setDeduplicatePropertySets(true)
+        .build();
+    TestResults full = new DirectoryBasedOutputsCollector().parse(root);
+    TestResults deduplicated = collector.parse(root);
+    assertThat(deduplicated.getSharedPropertySetCount(), is(2));
+    assertThat(deduplicated.getTestSuite(2).getPropertyCount(), is(0));
+    assertThat(deduplicated.getTestSuite(2).getSharedPropertySetId(), is(0));
+    assertThat(deduplicated.getTestSuite(3).getSharedPropertySetId(), is(1));
+    assertThat(SharedPropertySets.resolve(deduplicated), is(full));
+
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    collector.parse(root, out);
+    List<TestSuite> read = new ArrayList<>();
+    try (TestResultsReader reader =
+        new TestResultsReader(new ByteArrayInputStream(out.toByteArray()))) {
+      TestSuite testSuite;
+      while ((testSuite = reader.read()) != null) {
+        read.add(testSuite);
+      }
+    }
+    assertThat(read, is(full.getTestSuiteList()));
+  }
+
+  @Test
+  public void testReusesCachedResultsForUnchangedFiles() throws Exception {
+    Path root = Files.createDirectory(inMemFileSystem.getPath("/012345"));
+    Path reports = Files.createDirectories(root.resolve("tests/target/surefire-reports"));
+    for (int i = 0; i < 3; i++) {
+      write(reports.resolve("TEST-com.google.Test" + i + ".xml"), asList(
+          "<testsuite name=\"Test" + i + "\">",
+          "</testsuite>"
+      ), UTF_8);
+    }
+    Path cacheFile = inMemFileSystem.getPath("/cache/results.cache");
+    CollectionCache cache = CollectionCache.open(cacheFile, false);
+    DirectoryBasedOutputsCollector collector =
+        DirectoryBasedOutputsCollector.newBuilder().setCollectionCache(cache).build();
+    TestResults first = collector.parse(root);
+    assertThat(cache.getMissCount(), is(3L));
+    assertThat(collector.parse(root), is(first));
+    assertThat(cache.getHitCount(), is(3L));
+
+    write(reports.resolve("TEST-com.google.Test1.xml"), asList(
+        "<testsuite name=\"Changed\">",
+        "</testsuite>"
+    ), UTF_8);
+    CollectionCache reopened = CollectionCache.open(cacheFile, false);
+    TestResults changed = DirectoryBasedOutputsCollector.newBuilder()
+        .setCollectionCache(reopened)
+        .build()
+        .parse(root);
+    assertThat(reopened.getHitCount(), is(2L));
+    assertThat(reopened.getMissCount(), is(1L));
+    assertThat(changed, is(new DirectoryBasedOutputsCollector().parse(root)));
+  }
+
+  @Test
+  public void testReusesCachedResultsForTouchedFilesWithSameContentHash() throws Exception {
+    Path root = Files.createDirectory(inMemFileSystem.getPath("/012345"));
+    Path testXml = root.resolve("tests/TEST-com.google.Something.xml");
+    Files.createDirectories(testXml.getParent());
+    write(testXml, asList("<testsuite name=\"MyTest\">", "</testsuite>"), UTF_8);
+    Path cacheFile = inMemFileSystem.getPath("/results.cache");
+    DirectoryBasedOutputsCollector.newBuilder()
+        .setCollectionCache(CollectionCache.open(cacheFile, true))
+        .build()
+        .parse(root);
+
+    Files.setLastModifiedTime(testXml, FileTime.fromMillis(0));
+    CollectionCache cache = CollectionCache.open(cacheFile, true);
+    TestResults testResults =
+        DirectoryBasedOutputsCollector.newBuilder().setCollectionCache(cache).build().parse(root);
+    assertThat(cache.getHitCount(), is(1L));
+    assertThat(testResults.getTestSuite(0).getName(), is("MyTest"));
+
+    // The new modification time was saved, so the file is a hit even without hashing.
+    CollectionCache unhashed = CollectionCache.open(cacheFile, false);
+    DirectoryBasedOutputsCollector.newBuilder().setCollectionCache(unhashed).build().parse(root);
+    assertThat(unhashed.getHitCount(), is(1L));
+  }
+
+  @Test
+  public void testStreamsDelimitedResults() throws Exception {
+    Path root = Files.createDirectory(inMemFileSystem.getPath("/012345"));
+    write(root.resolve("build-log.txt"), asList("Started"), UTF_8);
+    Path reports = Files.createDirectories(root.resolve("tests/target/surefire-reports"));
+    byte[] failingReport = ByteStreams.toByteArray(getClass().getResourceAsStream("/fail.xml"));
+    for (int i = 0; i < 3; i++) {
+      Files.write(reports.resolve("TEST-com.google.SimpleTest" + i + ".xml"), failingReport);
+    }
+    TestResults expected = new DirectoryBasedOutputsCollector().parse(root);
+
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    DirectoryBasedOutputsCollector.newBuilder()
+        .setDeduplicateStackTraces(true)
+        .build()
+        .parse(root, out);
+    TestResults.Builder actual = TestResults.newBuilder();
+    try (TestResultsReader reader =
+        new TestResultsReader(new ByteArrayInputStream(out.toByteArray()))) {
+      TestSuite testSuite;
+      while ((testSuite = reader.read()) != null) {
+        actual.addTestSuite(testSuite);
+      }
+      actual.setBuildLog(reader.getBuildLog());
+    }
+    assertThat(actual.build(), is(expected));
+  }
+
+  @Test
+  public void testReportsSuitesToListener() throws Exception {
+    Path root = Files.createDirectory(inMemFileSystem.getPath("/012345"));
+    Path reports = Files.createDirectories(root.resolve("tests/target/surefire-reports"));
+    Files.write(reports.resolve("TEST-Failing.xml"),
+        ByteStreams.toByteArray(getClass().getResourceAsStream("/fail.xml")));
+    Files.write(reports.resolve("TEST-Multiple.xml"),
+        ByteStreams.toByteArray(getClass().getResourceAsStream("/multiple-testsuites.xml")));
+    DirectoryBasedOutputsCollector collector = new DirectoryBasedOutputsCollector();
+    TestStatistics streamed = new TestStatistics();
+    collector.parse(root, streamed);
+    TestStatistics collected = new TestStatistics();
+    collected.add(collector.parse(root));
+    assertThat(streamed.getTotalCount(), is(collected.getTotalCount()));
+    assertThat(streamed.getClassStatistics().toString(),
+        is(collected.getClassStatistics().toString()));
+  }
+
+  @Test
+  public void testWatchPublishesOnlyChangedReports() throws Exception {
+    FileSystem watchedFileSystem = Jimfs.newFileSystem(Configuration.unix().toBuilder()
+        .setWatchServiceConfiguration(WatchServiceConfiguration.polling(10, MILLISECONDS))
+        .build());
+    Path root = Files.createDirectory(watchedFileSystem.getPath("/workspace"));
+    Path first = root.resolve("a/build/test-results/test/TEST-First.xml");
+    Files.createDirectories(first.getParent());
+    writeSuite(first, "First");
+
+    final List<String> events = new ArrayList<>();
+    TestResultsWatcher watcher = new DirectoryBasedOutputsCollector().watch(root, 20, MILLISECONDS,
+        new TestResultsWatcher.Subscriber() {
+          @Override
+          public void onReportChanged(Path file, List<TestSuite> testSuites) {
+            events.add("changed " + file + " " + testSuites.get(0).getName());
+          }
+
+          @Override
+          public void onReportDeleted(Path file) {
+            events.add("deleted " + file);
+          }
+        });
+    try {
+      assertThat(events, is(asList("changed " + first + " First")));
+
+      Path second = root.resolve("b/build/test-results/test/TEST-Second.xml");
+      Files.createDirectories(second.getParent());
+      writeSuite(second, "Second");
+      awaitEvents(watcher, events, 2);
+      assertThat(events.get(1), is("changed " + second + " Second"));
+
+      writeSuite(first, "FirstAgain");
+      awaitEvents(watcher, events, 3);
+      assertThat(events.get(2), is("changed " + first + " FirstAgain"));
+
+      Files.delete(second);
+      awaitEvents(watcher, events, 4);
+      assertThat(events.get(3), is("deleted " + second));
+
+      watcher.processEvents(100, MILLISECONDS);
+      assertThat(events.size(), is(4));
+    } finally {
+      watcher.close();
+      watchedFileSystem.close();
+    }
+  }
+
+  @Test
+  public void testWatchReturnsOnTimeWhileFilesKeepChanging() throws Exception {
+    FileSystem watchedFileSystem = Jimfs.newFileSystem(Configuration.unix().toBuilder()
+        .setWatchServiceConfiguration(WatchServiceConfiguration.polling(5, MILLISECONDS))
+        .build());
+    Path root = Files.createDirectory(watchedFileSystem.getPath("/workspace"));
+    final Path reports = Files.createDirectories(root.resolve("a/build/test-results/test"));
+    // Without debouncing every key publishes a report, which takes longer than the polling
+    // interval, so there is always another key waiting.
+    final TestResultsWatcher watcher = new DirectoryBasedOutputsCollector().watch(root, 0,
+        MILLISECONDS, new TestResultsWatcher.Subscriber() {
+          @Override
+          public void onReportChanged(Path file, List<TestSuite> testSuites) {
+            Uninterruptibles.sleepUninterruptibly(10, MILLISECONDS);
+          }
+
+          @Override
+          public void onReportDeleted(Path file) {}
+        });
+    ExecutorService executor = Executors.newFixedThreadPool(2);
+    final AtomicBoolean writing = new AtomicBoolean(true);
+    try {
+      executor.submit(new Callable<Void>() {
+        @Override
+        public Void call() throws Exception {
+          for (int i = 0; writing.get(); i++) {
+            writeSuite(reports.resolve("TEST-" + i + ".xml"), "Suite" + i);
+            Thread.sleep(1);
+          }
+          return null;
+        }
+      });
+      Future<?> processing = executor.submit(new Callable<Void>() {
+        @Override
+        public Void call() throws Exception {
+          watcher.processEvents(200, MILLISECONDS);
+          return null;
+        }
+      });
+      processing.get(10, SECONDS);
+    } finally {
+      writing.set(false);
+      watcher.close();
+      executor.shutdown();
+      watchedFileSystem.close();
+    }
+  }
+
+  @Test
+  public void testWatchSurvivesReportsDeletedBeforeParsing() throws Exception {
+    FileSystem watchedFileSystem = Jimfs.newFileSystem(Configuration.unix().toBuilder()
+        .setWatchServiceConfiguration(WatchServiceConfiguration.polling(10, MILLISECONDS))
+        .build());
+    Path root = Files.createDirectory(watchedFileSystem.getPath("/workspace"));
+    final Path first = root.resolve("a/build/test-results/test/TEST-First.xml");
+    Files.createDirectories(first.getParent());
+    writeSuite(first, "First");
+
+    final List<Path> deleteBeforeParsing = new ArrayList<>();
+    ExecutorService executor = new ForwardingExecutorService() {
+      private final ExecutorService delegate = MoreExecutors.newDirectExecutorService();
+
+      @Override
+      protected ExecutorService delegate() {
+        return delegate;
+      }
+
+      @Override
+      public <T> Future<T> submit(Callable<T> task) {
+        for (Path file : deleteBeforeParsing) {
+          try {
+            Files.deleteIfExists(file);
+          } catch (IOException e) {
+            throw new AssertionError(e);
+          }
+        }
+        return super.submit(task);
+      }
+    };
+    final List<String> events = new ArrayList<>();
+    TestResultsWatcher watcher = DirectoryBasedOutputsCollector.newBuilder()
+        .setExecutor(executor)
+        .build()
+        .watch(root, 20, MILLISECONDS, new TestResultsWatcher.Subscriber() {
+          @Override
+          public void onReportChanged(Path file, List<TestSuite> testSuites) {
+            events.add("changed " + file + " " + testSuites.get(0).getName());
+          }
+
+          @Override
+          public void onReportDeleted(Path file) {
+            events.add("deleted " + file);
+          }
+        });
+    try {
+      assertThat(events, is(asList("changed " + first + " First")));
+
+      deleteBeforeParsing.add(first);
+      writeSuite(first, "FirstAgain");
+      awaitEvents(watcher, events, 2);
+      assertThat(events.get(1), is("deleted " + first));
+
+      deleteBeforeParsing.clear();
+      writeSuite(first, "FirstRestored");
+      awaitEvents(watcher, events, 3);
+      assertThat(events.get(2), is("changed " + first + " FirstRestored"));
+    } finally {
+      watcher.close();
+      watchedFileSystem.close();
+    }
+  }
+
+  @Test
+  public void testReadsReportsFromZipArchive() throws Exception {
+    Path archive = temporaryFolder.getRoot().toPath().resolve("artifacts.zip");
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    try (ZipOutputStream zip = new ZipOutputStream(Files.newOutputStream(archive))) {
+      zip.putNextEntry(new ZipEntry("build-log.txt"));
+      zip.write("Started\n".getBytes(UTF_8));
+      for (int i = 0; i < 20; i++) {
+        zip.putNextEntry(new ZipEntry("module/test-results/TEST-Test" + i + ".xml"));
+        zip.write(suite("Test" + i));
+      }
+      zip.putNextEntry(new ZipEntry("module/classes/ignored.xml"));
+      zip.write(suite("Ignored"));
+    }
+    try {
+      TestResults serial = new DirectoryBasedOutputsCollector().parse(archive);
+      assertThat(serial.getBuildLog(), is(archive + "!/build-log.txt"));
+      assertThat(serial.getTestSuiteCount(), is(20));
+      assertThat(new DirectoryBasedOutputsCollector(executor).parse(archive), is(serial));
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  @Test
+  public void testKeepsCachedResultsOfArchivesWithTheSameLayoutApart() throws Exception {
+    Path cacheFile = temporaryFolder.getRoot().toPath().resolve("results.cache");
+    for (String name : asList("Aaaa", "Bbbb")) {
+      Path archive = temporaryFolder.getRoot().toPath().resolve(name + ".zip");
+      try (ZipOutputStream zip = new ZipOutputStream(Files.newOutputStream(archive))) {
+        ZipEntry entry = new ZipEntry("module/test-results/TEST-Test.xml");
+        entry.setTime(0);
+        zip.putNextEntry(entry);
+        zip.write(suite(name));
+      }
+      CollectionCache cache = CollectionCache.open(cacheFile, false);
+      TestResults testResults = DirectoryBasedOutputsCollector.newBuilder()
+          .setCollectionCache(cache)
+          .build()
+          .parse(archive);
+      assertThat(testResults.getTestSuite(0).getName(), is(name));
+      assertThat(cache.getHitCount(), is(0L));
+    }
+  }
+
+  @Test
+  public void testReadsReportsFromTarGzArchive() throws Exception {
+    Path archive = temporaryFolder.getRoot().toPath().resolve("artifacts.tar.gz");
+    try (TarArchiveOutputStream tar = new TarArchiveOutputStream(
+        new GZIPOutputStream(Files.newOutputStream(archive)))) {
+      tar.setLongFileMode(TarArchiveOutputStream.LONGFILE_GNU);
+      addTarEntry(tar, "build-log.txt", "Started\n".getBytes(UTF_8));
+      addTarEntry(tar, "module/test-results/TEST-First.xml", suite("First"));
+      addTarEntry(tar, "module/test-results/malformed.xml", "<one></two".getBytes(UTF_8));
+      addTarEntry(tar, "module/classes/ignored.xml", suite("Ignored"));
+      addTarEntry(tar, "module/test-results/" + Strings.repeat("nested/", 20) + "TEST-Second.xml",
+          suite("Second"));
+    }
+    TestResults expected = TestResults.newBuilder()
+        .setBuildLog(archive + "!/build-log.txt")
+        .addTestSuite(TestSuite.newBuilder().setName("First"))
+        .addTestSuite(TestSuite.newBuilder().setName("Second"))
+        .build();
+    assertThat(new DirectoryBasedOutputsCollector().parse(archive), is(expected));
+  }
+
+  @Test
+  public void testPoolsRepeatedStringsAcrossSuites() throws Exception {
+    Path root = inMemFileSystem.getPath("/workspace");
+    AntXmlGenerator.newBuilder()
+        .setSuiteCount(5)
+        .setTestsPerSuite(40)
+        .setFailureRatio(0.3)
+        .setStackDepth(10)
+        .setPropertyCount(5)
+        .build()
+        .generateTree(root, 4, 10);
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    try {
+      TestResults plain = new DirectoryBasedOutputsCollector(executor).parse(root);
+      TestResults pooled = DirectoryBasedOutputsCollector.newBuilder()
+          .setExecutor(executor)
+          .setStringPool(new StringPool())
+          .build()
+          .parse(root);
+      assertThat(pooled, is(plain));
+
+      Set<String> distinct = new HashSet<>(repeatedStrings(plain));
+      assertThat(identityCount(repeatedStrings(pooled)), is(distinct.size()));
+      assertThat(identityCount(repeatedStrings(plain)) > 10 * distinct.size(), is(true));
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  @Test
+  public void testReportsMetrics() throws Exception {
+    Path root = Files.createDirectory(inMemFileSystem.getPath("/012345"));
+    write(root.resolve("build-log.txt"), asList("Started"), UTF_8);
+    Path reports = Files.createDirectories(root.resolve("tests/target/surefire-reports"));
+    byte[] failingReport = ByteStreams.toByteArray(getClass().getResourceAsStream("/fail.xml"));
+    Files.write(reports.resolve("TEST-Fail.xml"), failingReport);
+    write(reports.resolve("TEST-Output.xml"), asList(
+        "<?xml version=\"1.0\" encoding=\"UTF-8\" ?>",
+        "<testsuite name=\"OutputTest\">",
+        "  <testcase classname=\"OutputTest\" name=\"testPrints\"/>",
+        "  <system-out>hello</system-out>",
+        "</testsuite>"
+    ), UTF_8);
+    write(reports.resolve("TEST-Malformed.xml"), asList("<one>", "</two"), UTF_8);
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    CountingParseMetrics metrics = new CountingParseMetrics();
+    try {
+      DirectoryBasedOutputsCollector.newBuilder()
+          .setExecutor(executor)
+          .setMetrics(metrics)
+          .build()
+          .parse(root);
+    } finally {
+      executor.shutdown();
+    }
+    assertThat(metrics.getFilesVisited(), is(4L));
+    assertThat(metrics.getFilesAccepted(), is(3L));
+    assertThat(metrics.getFilesParsed(), is(2L));
+    assertThat(metrics.getBytesParsed(),
+        is(failingReport.length + Files.size(reports.resolve("TEST-Output.xml"))));
+    assertThat(metrics.getSuiteCount(), is(2L));
+    assertThat(metrics.getTestCaseCount(), is(3L));
+    assertThat(metrics.getFailureCount(), is(1L));
+    assertThat(metrics.getFrameCount(), is(6L));
+    assertThat(metrics.getSkippedOutputBytes(), is((long) "hello".length()));
+    assertThat(metrics.getErrorCounts().keySet().asList(),
+        is(asList(XmlParseException.class.getName())));
+    assertThat(metrics.getSlowestFile().getFileName().toString().startsWith("TEST-"), is(true));
+  }
+
+  /** Returns every class name, exception type, source path and property name. */
+  private static List<String> repeatedStrings(TestResults testResults) {
+    List<String> strings = new ArrayList<>();
+    for (TestSuite testSuite : testResults.getTestSuiteList()) {
+      for (Property property : testSuite.getPropertyList()) {
+        strings.add(property.getName());
+      }
+      for (TestCase testCase : testSuite.getTestCaseList()) {
+        strings.add(testCase.getClassName());
+        for (StackTrace failure : testCase.getFailureList()) {
+          strings.add(failure.getExceptionType());
+          for (StackContent content : failure.getStackContentList()) {
+            if (content.hasCodeReference()) {
+              strings.add(content.getCodeReference().getPath());
+            }
+          }
+        }
+      }
+    }
+    return strings;
+  }
+
+  private static int identityCount(List<String> strings) {
+    Set<String> identities = Collections.newSetFromMap(new IdentityHashMap<String, Boolean>());
+    identities.addAll(strings);
+    return identities.size();
+  }
+
+  private static byte[] suite(String name) {
+    return ("<?xml version=\"1.0\" encoding=\"UTF-8\" ?>\n"
+        + "<testsuite name=\"" + name + "\">\n"
+        + "</testsuite>\n").getBytes(UTF_8);
+  }
+
+  private static void addTarEntry(TarArchiveOutputStream tar, String name, byte[] contents)
+      throws Exception {
+    TarArchiveEntry entry = new TarArchiveEntry(name);
+    entry.setSize(contents.length);
+    tar.putArchiveEntry(entry);
+    tar.write(contents);
+    tar.closeArchiveEntry();
+  }
+
+  private static void writeSuite(Path file, String name) throws Exception {
+    write(file, asList(
+        "<?xml version=\"1.0\" encoding=\"UTF-8\" ?>",
+        "<testsuite name=\"" + name + "\">",
+        "</testsuite>"
+    ), UTF_8);
+  }
+
+  private static void awaitEvents(TestResultsWatcher watcher, List<String> events, int count)
+      throws Exception {
+    for (int i = 0; i < 500 && events.size() < count; i++) {
+      watcher.processEvents(10, MILLISECONDS);
+    }
+    assertThat(events.size(), is(count));
+  }
 }
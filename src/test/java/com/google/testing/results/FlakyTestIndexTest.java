@@ -0,0 +1,133 @@
+/*
+ * Copyright 2014 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.testing.results;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.testing.results.TestResultsProto.TestResults;
+import com.google.testing.results.TestSuiteProto.StackTrace;
+import com.google.testing.results.TestSuiteProto.TestCase;
+import com.google.testing.results.TestSuiteProto.TestStatus;
+import com.google.testing.results.TestSuiteProto.TestSuite;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class FlakyTestIndexTest {
+
+  @Test
+  public void shouldTrackOutcomesAndFlips() throws Exception {
+    FlakyTestIndex index = new FlakyTestIndex();
+    index.addRun(run(testCase("A", "stable", TestStatus.PASSED),
+        testCase("A", "flaky", TestStatus.PASSED)));
+    index.addRun(run(testCase("A", "stable", TestStatus.PASSED),
+        failed("A", "flaky", "java.lang.AssertionError", "expected:<1> but was:<2>")));
+    index.addRun(run(testCase("A", "stable", TestStatus.SKIPPED),
+        testCase("A", "flaky", TestStatus.PASSED)));
+
+    assertThat(index.getRunCount()).isEqualTo(3);
+    assertThat(index.getTestCount()).isEqualTo(2);
+    FlakyTestIndex.FlakyTest flaky = index.getTest("A", "flaky");
+    assertThat(flaky.getRecentOutcomes()).isEqualTo(0b010L);
+    assertThat(flaky.getRecentRunCount()).isEqualTo(3);
+    assertThat(flaky.getFlipCount()).isEqualTo(2);
+    assertThat(flaky.getFailureSignature()).isNotEqualTo(0);
+    FlakyTestIndex.FlakyTest stable = index.getTest("A", "stable");
+    assertThat(stable.getRunCount()).isEqualTo(2);
+    assertThat(stable.getFlipCount()).isEqualTo(0);
+    assertThat(stable.getFailureSignature()).isEqualTo(0);
+    assertThat(index.getTest("A", "missing")).isNull();
+  }
+
+  @Test
+  public void shouldRankByRecentFlips() throws Exception {
+    FlakyTestIndex index = new FlakyTestIndex();
+    for (int run = 0; run < 200; run++) {
+      index.addRun(run(
+          testCase("A", "alternating", run % 2 == 0 ? TestStatus.PASSED : TestStatus.FAILED),
+          testCase("A", "everyFourth", run % 4 == 0 ? TestStatus.ERROR : TestStatus.PASSED),
+          // Flipped often, but only long ago.
+          testCase("A", "fixed", run < 100 && run % 2 == 0 ? TestStatus.FAILED : TestStatus.PASSED),
+          testCase("A", "broken", TestStatus.FAILED)));
+    }
+    assertThat(index.getTest("A", "alternating").getRecentFlipCount()).isEqualTo(63);
+    assertThat(index.getTest("A", "fixed").getRecentFlipCount()).isEqualTo(0);
+    assertThat(index.topFlaky(10).toString()).isEqualTo("[A#alternating: 63 flips in last 64 runs,"
+        + " A#everyFourth: 31 flips in last 64 runs]");
+    assertThat(index.topFlaky(1)).hasSize(1);
+    assertThat(index.topFlaky(0)).isEmpty();
+  }
+
+  @Test
+  public void shouldCountFailureSignatureChanges() throws Exception {
+    FlakyTestIndex index = new FlakyTestIndex();
+    index.addRun(run(failed("A", "test", "java.io.IOException", "timeout")));
+    index.addRun(run(failed("A", "test", "java.io.IOException", "timeout")));
+    int signature = index.getTest("A", "test").getFailureSignature();
+    index.addRun(run(failed("A", "test", "java.lang.NullPointerException", "")));
+
+    assertThat(index.getTest("A", "test").getFailureSignature()).isNotEqualTo(signature);
+    assertThat(index.getTest("A", "test").getFailureSignatureChanges()).isEqualTo(1);
+  }
+
+  @Test
+  public void shouldResolveSharedStackTraces() throws Exception {
+    FlakyTestIndex shared = new FlakyTestIndex();
+    SharedStackTraces sharedStackTraces = new SharedStackTraces();
+    TestResults.Builder results = TestResults.newBuilder().addTestSuite(sharedStackTraces.share(
+        TestSuite.newBuilder().addTestCase(failed("A", "test", "Boom", "message")).build()));
+    sharedStackTraces.addTo(results);
+    shared.addRun(results.build());
+
+    FlakyTestIndex plain = new FlakyTestIndex();
+    plain.addRun(run(failed("A", "test", "Boom", "message")));
+
+    assertThat(shared.getTest("A", "test").getFailureSignature())
+        .isEqualTo(plain.getTest("A", "test").getFailureSignature());
+  }
+
+  @Test
+  public void shouldKeepTestsWithSeparatorsInTheirNamesApart() throws Exception {
+    FlakyTestIndex index = new FlakyTestIndex();
+    index.addRun(run(
+        testCase("a#b", "c", TestStatus.PASSED),
+        testCase("a", "b#c", TestStatus.FAILED)));
+    assertThat(index.getTestCount()).isEqualTo(2);
+    assertThat(index.getTest("a#b", "c").getRunCount()).isEqualTo(1);
+    assertThat(index.getTest("a", "b#c").getRunCount()).isEqualTo(1);
+  }
+
+  private static TestResults run(TestCase... testCases) {
+    TestSuite.Builder suite = TestSuite.newBuilder().setName("suite");
+    for (TestCase testCase : testCases) {
+      suite.addTestCase(testCase);
+    }
+    return TestResults.newBuilder().addTestSuite(suite).build();
+  }
+
+  private static TestCase testCase(String className, String name, TestStatus status) {
+    return TestCase.newBuilder().setClassName(className).setName(name).setStatus(status).build();
+  }
+
+  private static TestCase failed(String className, String name, String type, String message) {
+    return testCase(className, name, TestStatus.FAILED).toBuilder()
+        .addFailure(StackTrace.newBuilder().setExceptionType(type).setExceptionMessage(message))
+        .build();
+  }
+}
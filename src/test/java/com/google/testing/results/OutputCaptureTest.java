@@ -0,0 +1,75 @@
+/*
+ * Copyright 2014 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.testing.results;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.testing.results.AntXmlParser.OutputTruncation;
+import com.google.testing.results.TestSuiteProto.CapturedOutput;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class OutputCaptureTest {
+  private static final String OUTPUT = "line one\nline two\nline three\n";
+
+  @Test
+  public void shouldKeepTheSameTextForAnyChunking() throws Exception {
+    for (OutputTruncation truncation : OutputTruncation.values()) {
+      CapturedOutput expected = capture(OUTPUT.length(), truncation, 11);
+      assertThat(expected.getTruncated()).isTrue();
+      for (int chunkSize = 1; chunkSize <= OUTPUT.length(); chunkSize++) {
+        assertThat(capture(chunkSize, truncation, 11)).isEqualTo(expected);
+      }
+    }
+  }
+
+  @Test
+  public void shouldKeepOutputWithinBudgetWhole() throws Exception {
+    CapturedOutput output = capture(3, OutputTruncation.HEAD_AND_TAIL, OUTPUT.length());
+    assertThat(output.getText()).isEqualTo(OUTPUT);
+    assertThat(output.getTruncated()).isFalse();
+    assertThat(output.getLength()).isEqualTo(OUTPUT.length());
+  }
+
+  @Test
+  public void shouldNotSplitSurrogatePairs() throws Exception {
+    String output = "\ud83d\ude00\ud83d\ude00\ud83d\ude00";
+    CapturedOutput head = capture(output, 1, OutputTruncation.HEAD, 3);
+    assertThat(head.getText()).isEqualTo("\ud83d\ude00");
+    assertThat(head.getLength()).isEqualTo(12);
+    assertThat(capture(output, 1, OutputTruncation.TAIL, 3).getText())
+        .isEqualTo("\ud83d\ude00");
+  }
+
+  private static CapturedOutput capture(int chunkSize, OutputTruncation truncation, int budget)
+      throws Exception {
+    return capture(OUTPUT, chunkSize, truncation, budget);
+  }
+
+  private static CapturedOutput capture(
+      String output, int chunkSize, OutputTruncation truncation, int budget) throws Exception {
+    OutputCapture capture = new OutputCapture(budget, truncation, null);
+    char[] chars = output.toCharArray();
+    for (int start = 0; start < chars.length; start += chunkSize) {
+      capture.append(chars, start, Math.min(chunkSize, chars.length - start));
+    }
+    return capture.finish();
+  }
+}
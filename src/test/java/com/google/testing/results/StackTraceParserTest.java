@@ -0,0 +1,83 @@
+/*
+ * Copyright 2014 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.testing.results;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.testing.results.TestSuiteProto.CodeReference;
+import com.google.testing.results.TestSuiteProto.StackContent;
+import com.google.testing.results.TestSuiteProto.StackTrace;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class StackTraceParserTest {
+  private static final String STACK_TRACE = "java.lang.AssertionError\r\n"
+      + "\tat org.junit.Assert.fail(Assert.java:88)\r"
+      + "\tat com.google.SimpleTest.testThatFails(SimpleTest.java:11)";
+
+  @Test
+  public void shouldSplitLinesAcrossChunkBoundaries() throws Exception {
+    StackTrace expected = parse(STACK_TRACE.length());
+    assertThat(expected.getContent()).isEqualTo(STACK_TRACE);
+    assertThat(expected.getStackContentList()).containsExactly(
+        text("java.lang.AssertionError\n\tat org.junit.Assert.fail("),
+        codeRef("Assert.java:88", "org/junit/Assert.java", 88),
+        text(")\n\tat com.google.SimpleTest.testThatFails("),
+        codeRef("SimpleTest.java:11", "com/google/SimpleTest.java", 11),
+        text(")\n")).inOrder();
+    for (int chunkSize = 1; chunkSize < STACK_TRACE.length(); chunkSize++) {
+      assertThat(parse(chunkSize)).isEqualTo(expected);
+    }
+  }
+
+  @Test
+  public void shouldNotRetainContentWhenDisabled() throws Exception {
+    StackTrace.Builder builder = StackTrace.newBuilder();
+    StackTraceParser parser = new StackTraceParser(builder, false, null);
+    parser.append(STACK_TRACE.toCharArray(), 0, STACK_TRACE.length());
+    parser.finish();
+    assertThat(builder.hasContent()).isFalse();
+    assertThat(builder.getStackContentCount()).isEqualTo(5);
+  }
+
+  private static StackTrace parse(int chunkSize) throws Exception {
+    StackTrace.Builder builder = StackTrace.newBuilder();
+    StackTraceParser parser = new StackTraceParser(builder, true, null);
+    char[] chars = STACK_TRACE.toCharArray();
+    for (int start = 0; start < chars.length; start += chunkSize) {
+      parser.append(chars, start, Math.min(chunkSize, chars.length - start));
+    }
+    parser.finish();
+    return builder.build();
+  }
+
+  private static StackContent text(String text) {
+    return StackContent.newBuilder().setText(text).build();
+  }
+
+  private static StackContent codeRef(String text, String path, int lineNumber) {
+    return StackContent.newBuilder()
+        .setCodeReference(CodeReference.newBuilder()
+            .setText(text)
+            .setPath(path)
+            .setLineNumber(lineNumber))
+        .build();
+  }
+}
@@ -0,0 +1,140 @@
+/*
+ * Copyright 2014 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.testing.results;
+
+import static com.google.common.truth.Truth.assertThat;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.io.ByteStreams;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+@RunWith(JUnit4.class)
+public class SystemOutputSkippingInputStreamTest {
+  private static final String INPUT = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+      + "<!DOCTYPE testsuite [<!ENTITY e \"<system-out>\">]>\n"
+      + "<testsuite name=\"a>b\">\n"
+      + "  <!-- <system-out>kept</system-out> -->\n"
+      + "  <system-out-of-band>kept</system-out-of-band>\n"
+      + "  <testcase name=\"t\"><system-out/></testcase>\n"
+      + "  <system-out attr='>'>dropped &lt;/system-out&gt; \u00e9\u4e2d"
+      + "<![CDATA[</system-out>]]]></system-err>dropped<!-- </system-out> -->"
+      + "<?pi </system-out> ?></system-out >\n"
+      + "  <![CDATA[<system-err>kept</system-err>]]>\n"
+      + "  <system-err>\n\ndropped\n</system-err>\n"
+      + "</testsuite>\n";
+
+  private static final String EXPECTED = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+      + "<!DOCTYPE testsuite [<!ENTITY e \"<system-out>\">]>\n"
+      + "<testsuite name=\"a>b\">\n"
+      + "  <!-- <system-out>kept</system-out> -->\n"
+      + "  <system-out-of-band>kept</system-out-of-band>\n"
+      + "  <testcase name=\"t\"><system-out/></testcase>\n"
+      + "  <system-out attr='>'></system-out >\n"
+      + "  <![CDATA[<system-err>kept</system-err>]]>\n"
+      + "  <system-err></system-err>\n"
+      + "</testsuite>\n";
+
+  @Test
+  public void shouldDropOnlySystemOutputContent() throws Exception {
+    assertThat(filter(new ByteArrayInputStream(INPUT.getBytes(UTF_8)), 1024))
+        .isEqualTo(EXPECTED);
+  }
+
+  @Test
+  public void shouldNotDependOnBufferOrReadBoundaries() throws Exception {
+    for (int bufferSize = 32; bufferSize < INPUT.length(); bufferSize++) {
+      assertThat(filter(new OneByteInputStream(INPUT.getBytes(UTF_8)), bufferSize))
+          .isEqualTo(EXPECTED);
+      assertThat(filter(new ByteArrayInputStream(INPUT.getBytes(UTF_8)), bufferSize))
+          .isEqualTo(EXPECTED);
+    }
+  }
+
+  @Test
+  public void shouldCountSkippedBytes() throws Exception {
+    String input = "<testsuite><system-out>12345</system-out><system-err/></testsuite>";
+    SystemOutputSkippingInputStream in =
+        new SystemOutputSkippingInputStream(new ByteArrayInputStream(input.getBytes(UTF_8)));
+    ByteStreams.toByteArray(in);
+    assertThat(in.getSkippedBytes()).isEqualTo(5);
+  }
+
+  @Test
+  public void shouldSkipAfterSelfClosingElement() throws Exception {
+    String input = "<testsuite><system-out/><system-out>abcdefgh</system-out></testsuite>";
+    SystemOutputSkippingInputStream in =
+        new SystemOutputSkippingInputStream(new ByteArrayInputStream(input.getBytes(UTF_8)));
+    assertThat(new String(ByteStreams.toByteArray(in), UTF_8))
+        .isEqualTo("<testsuite><system-out/><system-out></system-out></testsuite>");
+    assertThat(in.getSkippedBytes()).isEqualTo(8);
+  }
+
+  @Test
+  public void shouldSkipNestedElementsOfTheSameName() throws Exception {
+    String input = "<testsuite><system-out a='>'><system-out>x</system-out><system-out/>"
+        + "</system-out><testcase name=\"t\"/></testsuite>";
+    assertThat(filter(new ByteArrayInputStream(input.getBytes(UTF_8)), 32))
+        .isEqualTo("<testsuite><system-out a='>'></system-out><testcase name=\"t\"/></testsuite>");
+    AntXmlParser skipping = new AntXmlParser();
+    AntXmlParser decoding = AntXmlParser.newBuilder().setFastSkipOutput(false).build();
+    assertThat(skipping.parse(new ByteArrayInputStream(input.getBytes(UTF_8)), UTF_8))
+        .isEqualTo(decoding.parse(new ByteArrayInputStream(input.getBytes(UTF_8)), UTF_8));
+  }
+
+  @Test
+  public void shouldParseTheSameAsWithoutSkipping() throws Exception {
+    ByteArrayOutputStream report = new ByteArrayOutputStream();
+    AntXmlGenerator.newBuilder()
+        .setSuiteCount(3)
+        .setFailureRatio(0.3)
+        .setSystemOutBytes(100_000)
+        .setSystemErrBytes(10_000)
+        .build()
+        .generate(report);
+    byte[] bytes = report.toByteArray();
+    AntXmlParser skipping = new AntXmlParser();
+    AntXmlParser decoding = AntXmlParser.newBuilder().setFastSkipOutput(false).build();
+    assertThat(skipping.parse(new ByteArrayInputStream(bytes), UTF_8))
+        .isEqualTo(decoding.parse(new ByteArrayInputStream(bytes), UTF_8));
+  }
+
+  private static String filter(InputStream in, int bufferSize) throws IOException {
+    return new String(
+        ByteStreams.toByteArray(new SystemOutputSkippingInputStream(in, bufferSize)), UTF_8);
+  }
+
+  /** Returns at most one byte per read, the worst case for boundary handling. */
+  private static class OneByteInputStream extends FilterInputStream {
+    OneByteInputStream(byte[] bytes) {
+      super(new ByteArrayInputStream(bytes));
+    }
+
+    @Override
+    public int read(byte[] bytes, int offset, int length) throws IOException {
+      return super.read(bytes, offset, Math.min(length, 1));
+    }
+  }
+}
@@ -0,0 +1,192 @@
+/*
+ * Copyright 2014 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.testing.results;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.fail;
+import static java.nio.file.StandardOpenOption.APPEND;
+
+import com.google.common.jimfs.Configuration;
+import com.google.common.jimfs.Jimfs;
+import com.google.testing.results.TestResultsProto.TestResults;
+import com.google.testing.results.TestSuiteProto.TestCase;
+import com.google.testing.results.TestSuiteProto.TestStatus;
+import com.google.testing.results.TestSuiteProto.TestSuite;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystem;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+
+@RunWith(JUnit4.class)
+public class TestHistoryTest {
+  @Rule public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  @Test
+  public void shouldReturnOutcomesAfterReopening() throws Exception {
+    Path directory = temporaryFolder.getRoot().toPath().resolve("history");
+    try (TestHistory history = TestHistory.open(directory)) {
+      history.append("run-1", 1000, results(
+          testCase("a.ATest", "one", TestStatus.PASSED, 10),
+          testCase("a.ATest", "two", TestStatus.FAILED, 20)));
+      history.append("run-2", 2000, results(
+          testCase("a.ATest", "one", TestStatus.FAILED, 11)));
+    }
+    try (TestHistory history = TestHistory.open(directory)) {
+      history.append("run-3", 3000, results(
+          testCase("a.ATest", "two", TestStatus.PASSED, 21),
+          testCase("a.ATest", "one", TestStatus.PASSED, 12)));
+
+      assertThat(history.getRunCount()).isEqualTo(3);
+      assertThat(history.getRowCount()).isEqualTo(5);
+      assertThat(history.getTestCount()).isEqualTo(2);
+      List<TestHistory.Outcome> outcomes = history.getOutcomes("a.ATest", "one", 10);
+      assertThat(outcomes.toString())
+          .isEqualTo("[run-1: PASSED in 10ms, run-2: FAILED in 11ms, run-3: PASSED in 12ms]");
+      assertThat(outcomes.get(1).getTimestampMillis()).isEqualTo(2000);
+      assertThat(history.getOutcomes("a.ATest", "two", 10).toString())
+          .isEqualTo("[run-1: FAILED in 20ms, run-3: PASSED in 21ms]");
+      assertThat(history.getOutcomes("a.ATest", "three", 10)).isEmpty();
+    }
+  }
+
+  @Test
+  public void shouldOnlyScanTheLastRuns() throws Exception {
+    try (TestHistory history = TestHistory.open(temporaryFolder.getRoot().toPath())) {
+      for (int run = 0; run < 100; run++) {
+        history.append("run-" + run, run, results(
+            testCase("Other", "test", TestStatus.PASSED, run),
+            testCase("Flaky", "test", run % 2 == 0 ? TestStatus.PASSED : TestStatus.FAILED, run)));
+      }
+      List<TestHistory.Outcome> outcomes = history.getOutcomes("Flaky", "test", 3);
+      assertThat(outcomes.toString())
+          .isEqualTo("[run-97: FAILED in 97ms, run-98: PASSED in 98ms, run-99: FAILED in 99ms]");
+      assertThat(history.getOutcomes("Flaky", "test", 0)).isEmpty();
+    }
+  }
+
+  @Test
+  public void shouldReadSegmentsInAnyOrder() throws Exception {
+    try (TestHistory history = TestHistory.open(temporaryFolder.getRoot().toPath(), 4)) {
+      for (int run = 0; run < 10; run++) {
+        history.append("run-" + run, run, results(
+            testCase("Other", "test", TestStatus.PASSED, run),
+            testCase("Flaky", "test", run % 2 == 0 ? TestStatus.PASSED : TestStatus.FAILED, run)));
+      }
+      // Maps the last segment before any earlier one.
+      assertThat(history.getOutcomes("Flaky", "test", 1).toString())
+          .isEqualTo("[run-9: FAILED in 9ms]");
+      List<TestHistory.Outcome> outcomes = history.getOutcomes("Flaky", "test", 10);
+      assertThat(outcomes).hasSize(10);
+      for (int run = 0; run < 10; run++) {
+        assertThat(outcomes.get(run).getElapsedTimeMillis()).isEqualTo(run);
+      }
+    }
+  }
+
+  @Test
+  public void shouldDiscardAnInterruptedAppend() throws Exception {
+    Path directory = temporaryFolder.getRoot().toPath();
+    try (TestHistory history = TestHistory.open(directory)) {
+      history.append("run-1", 1000, results(testCase("A", "one", TestStatus.PASSED, 1)));
+    }
+    // Simulate a crash after the columns and part of the run record were written.
+    Files.write(directory.resolve("test_id.col"), new byte[] {0, 0, 0, 0}, APPEND);
+    Files.write(directory.resolve("status.col"), new byte[] {1}, APPEND);
+    Files.write(directory.resolve("runs.pb"), new byte[] {20, 10}, APPEND);
+
+    try (TestHistory history = TestHistory.open(directory)) {
+      assertThat(history.getRunCount()).isEqualTo(1);
+      assertThat(history.getRowCount()).isEqualTo(1);
+      history.append("run-2", 2000, results(testCase("A", "one", TestStatus.ERROR, 2)));
+      assertThat(history.getOutcomes("A", "one", 10).toString())
+          .isEqualTo("[run-1: PASSED in 1ms, run-2: ERROR in 2ms]");
+    }
+    try (TestHistory history = TestHistory.open(directory)) {
+      assertThat(history.getRunCount()).isEqualTo(2);
+    }
+  }
+
+  @Test
+  public void shouldRollBackAFailedAppend() throws Exception {
+    FileSystem fileSystem = Jimfs.newFileSystem(
+        Configuration.unix().toBuilder().setBlockSize(1024).setMaxSize(1 << 20).build());
+    Path directory = fileSystem.getPath("/history");
+    Path filler = fileSystem.getPath("/filler");
+    try (TestHistory history = TestHistory.open(directory)) {
+      history.append("run-1", 1000, results(testCase("A", "one", TestStatus.PASSED, 1)));
+      try (OutputStream out = Files.newOutputStream(filler)) {
+        while (true) {
+          out.write(new byte[1024]);
+        }
+      } catch (IOException e) {
+        // The file system is full.
+      }
+      TestCase[] testCases = new TestCase[1000];
+      Arrays.fill(testCases, testCase("A", "one", TestStatus.ERROR, 2));
+      try {
+        history.append("run-2", 2000, results(testCases));
+        fail();
+      } catch (IOException expected) {
+      }
+      assertThat(history.getRowCount()).isEqualTo(1);
+
+      Files.delete(filler);
+      history.append("run-3", 3000, results(testCase("A", "one", TestStatus.FAILED, 3)));
+    }
+    // Jimfs cannot map files, so the history is read from the default file system.
+    Path copy = temporaryFolder.getRoot().toPath();
+    try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+      for (Path file : files) {
+        Files.copy(file, copy.resolve(file.getFileName().toString()));
+      }
+    }
+    try (TestHistory history = TestHistory.open(copy)) {
+      assertThat(history.getRunCount()).isEqualTo(2);
+      assertThat(history.getOutcomes("A", "one", 10).toString())
+          .isEqualTo("[run-1: PASSED in 1ms, run-3: FAILED in 3ms]");
+    }
+  }
+
+  private static TestResults results(TestCase... testCases) {
+    TestSuite.Builder suite = TestSuite.newBuilder().setName("suite");
+    for (TestCase testCase : testCases) {
+      suite.addTestCase(testCase);
+    }
+    return TestResults.newBuilder().addTestSuite(suite).build();
+  }
+
+  private static TestCase testCase(String className, String name, TestStatus status,
+      long elapsedTimeMillis) {
+    return TestCase.newBuilder()
+        .setClassName(className)
+        .setName(name)
+        .setStatus(status)
+        .setElapsedTimeMillis(elapsedTimeMillis)
+        .build();
+  }
+}
@@ -0,0 +1,139 @@
+/*
+ * Copyright 2014 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.testing.results;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.collect.ImmutableList;
+import com.google.testing.results.TestResultsIndex.Order;
+import com.google.testing.results.TestResultsProto.TestResults;
+import com.google.testing.results.TestSuiteProto.TestCase;
+import com.google.testing.results.TestSuiteProto.TestStatus;
+import com.google.testing.results.TestSuiteProto.TestSuite;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+@RunWith(JUnit4.class)
+public class TestResultsIndexTest {
+  private final TestResultsIndex index = new TestResultsIndex(TestResults.newBuilder()
+      .addTestSuite(TestSuite.newBuilder()
+          .addTestCase(testCase("com.foo.BTest", "one", TestStatus.ERROR, 30))
+          .addTestCase(testCase("com.foo.BTest", "two", TestStatus.PASSED, 50)))
+      .addTestSuite(TestSuite.newBuilder()
+          .addTestCase(testCase("com.foobar.CTest", "one", TestStatus.ERROR, 40))
+          .addTestCase(testCase("com.foo.bar.ATest", "one", TestStatus.ERROR, 10))
+          .addTestCase(testCase("org.DTest", "one", TestStatus.FAILED, 30)))
+      .build());
+
+  @Test
+  public void shouldFilterByPackagePrefixAndStatus() throws Exception {
+    TestResultsIndex.Query query = TestResultsIndex.newQueryBuilder()
+        .setClassPrefix("com.foo.")
+        .setStatuses(TestStatus.ERROR)
+        .build();
+    assertThat(names(index.query(query))).containsExactly("BTest#one", "ATest#one").inOrder();
+    assertThat(index.count(query)).isEqualTo(2);
+  }
+
+  @Test
+  public void shouldOrderByClassName() throws Exception {
+    assertThat(names(index.query(TestResultsIndex.newQueryBuilder()
+        .setOrder(Order.CLASS_NAME)
+        .build())))
+        .containsExactly("BTest#one", "BTest#two", "ATest#one", "CTest#one", "DTest#one")
+        .inOrder();
+  }
+
+  @Test
+  public void shouldOrderByDurationAndPaginate() throws Exception {
+    TestResultsIndex.Query.Builder query = TestResultsIndex.newQueryBuilder()
+        .setStatuses(TestStatus.ERROR, TestStatus.FAILED)
+        .setOrder(Order.DURATION)
+        .setLimit(2);
+    assertThat(names(index.query(query.build()))).containsExactly("CTest#one", "BTest#one")
+        .inOrder();
+    assertThat(names(index.query(query.setOffset(2).build())))
+        .containsExactly("DTest#one", "ATest#one").inOrder();
+    assertThat(index.query(query.setOffset(4).build())).isEmpty();
+    assertThat(index.count(query.build())).isEqualTo(4);
+  }
+
+  @Test
+  public void shouldMatchNaiveIteration() throws Exception {
+    Random random = new Random(5);
+    String[] packages = {"a.b.", "a.bc.", "a.", "b."};
+    TestResults.Builder results = TestResults.newBuilder();
+    for (int suite = 0; suite < 50; suite++) {
+      TestSuite.Builder testSuite = results.addTestSuiteBuilder();
+      for (int test = 0; test < 40; test++) {
+        testSuite.addTestCase(testCase(packages[random.nextInt(packages.length)] + "T"
+            + random.nextInt(20), "t" + test, TestStatus.valueOf(random.nextInt(4)),
+            random.nextInt(100)));
+      }
+    }
+    TestResultsIndex index = new TestResultsIndex(results.build());
+    for (String prefix : new String[] {"", "a.b", "a.b.", "b.", "c."}) {
+      List<TestCase> expected = new ArrayList<>();
+      for (TestSuite testSuite : results.getTestSuiteList()) {
+        for (TestCase testCase : testSuite.getTestCaseList()) {
+          if (testCase.getClassName().startsWith(prefix)
+              && testCase.getStatus() != TestStatus.PASSED) {
+            expected.add(testCase);
+          }
+        }
+      }
+      TestResultsIndex.Query.Builder query = TestResultsIndex.newQueryBuilder()
+          .setClassPrefix(prefix)
+          .setStatuses(TestStatus.FAILED, TestStatus.ERROR, TestStatus.SKIPPED);
+      assertThat(index.query(query.build())).containsExactlyElementsIn(expected).inOrder();
+      assertThat(index.query(query.setOrder(Order.CLASS_NAME).build()))
+          .containsExactlyElementsIn(expected);
+      ImmutableList<TestCase> byDuration = index.query(query.setOrder(Order.DURATION).build());
+      assertThat(byDuration).containsExactlyElementsIn(expected);
+      for (int i = 1; i < byDuration.size(); i++) {
+        assertThat(byDuration.get(i).getElapsedTimeMillis())
+            .isAtMost(byDuration.get(i - 1).getElapsedTimeMillis());
+      }
+      assertThat(index.count(query.build())).isEqualTo(expected.size());
+    }
+  }
+
+  private static List<String> names(List<TestCase> testCases) {
+    List<String> names = new ArrayList<>();
+    for (TestCase testCase : testCases) {
+      String className = testCase.getClassName();
+      names.add(className.substring(className.lastIndexOf('.') + 1) + "#" + testCase.getName());
+    }
+    return names;
+  }
+
+  private static TestCase testCase(String className, String name, TestStatus status,
+      long elapsedTimeMillis) {
+    return TestCase.newBuilder()
+        .setClassName(className)
+        .setName(name)
+        .setStatus(status)
+        .setElapsedTimeMillis(elapsedTimeMillis)
+        .build();
+  }
+}
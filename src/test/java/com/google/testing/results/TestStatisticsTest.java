@@ -0,0 +1,129 @@
+/*
+ * Copyright 2014 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.testing.results;
+
+import static com.google.common.truth.Truth.assertThat;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.testing.results.TestSuiteProto.TestCase;
+import com.google.testing.results.TestSuiteProto.TestStatus;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+@RunWith(JUnit4.class)
+public class TestStatisticsTest {
+
+  @Test
+  public void shouldCountByStatusAndClass() throws Exception {
+    TestStatistics statistics = new TestStatistics();
+    statistics.add(testCase("a.ATest", "one", TestStatus.PASSED, 10));
+    statistics.add(testCase("a.ATest", "two", TestStatus.FAILED, 20));
+    statistics.add(testCase("b.BTest", "one", TestStatus.ERROR, 30));
+    statistics.add(testCase("b.BTest", "two", TestStatus.SKIPPED, 0));
+
+    assertThat(statistics.getTotalCount()).isEqualTo(4);
+    assertThat(statistics.getCount(TestStatus.FAILED)).isEqualTo(1);
+    assertThat(statistics.getFailureRate()).isWithin(1e-9).of(0.5);
+    assertThat(statistics.getClassStatistics().keySet())
+        .containsExactly("a.ATest", "b.BTest").inOrder();
+    TestStatistics.ClassStatistics a = statistics.getClassStatistics().get("a.ATest");
+    assertThat(a.getTotalCount()).isEqualTo(2);
+    assertThat(a.getCount(TestStatus.PASSED)).isEqualTo(1);
+    assertThat(a.getElapsedTimeMillis()).isEqualTo(30);
+  }
+
+  @Test
+  public void shouldComputePercentilesAndSlowestTests() throws Exception {
+    List<Integer> durations = new ArrayList<>();
+    for (int i = 1; i <= 100; i++) {
+      durations.add(i);
+    }
+    Collections.shuffle(durations, new Random(7));
+    TestStatistics statistics = new TestStatistics(3);
+    for (int duration : durations) {
+      statistics.add(testCase("Slow", "t" + duration, TestStatus.PASSED, duration));
+    }
+    assertThat(statistics.getDurationPercentile(0)).isEqualTo(1);
+    assertThat(statistics.getDurationPercentile(50)).isEqualTo(50);
+    assertThat(statistics.getDurationPercentile(100)).isEqualTo(100);
+    assertThat(statistics.getSlowestTests()).containsExactly(
+        testCase("Slow", "t100", TestStatus.PASSED, 100),
+        testCase("Slow", "t99", TestStatus.PASSED, 99),
+        testCase("Slow", "t98", TestStatus.PASSED, 98)).inOrder();
+  }
+
+  @Test
+  public void shouldMergeLikeASinglePass() throws Exception {
+    Random random = new Random(42);
+    TestStatistics single = new TestStatistics(5);
+    TestStatistics left = new TestStatistics(5);
+    TestStatistics right = new TestStatistics(5);
+    for (int i = 0; i < 10000; i++) {
+      TestCase testCase = testCase("Class" + random.nextInt(50), "test" + i,
+          TestStatus.values()[random.nextInt(4)], (long) (random.nextGaussian() * 1000 + 5000));
+      single.add(testCase);
+      (random.nextBoolean() ? left : right).add(testCase);
+    }
+    left.merge(right);
+    assertThat(left.getTotalCount()).isEqualTo(single.getTotalCount());
+    assertThat(left.getFailureRate()).isEqualTo(single.getFailureRate());
+    assertThat(left.getClassStatistics().toString())
+        .isEqualTo(single.getClassStatistics().toString());
+    for (double percentile : new double[] {0, 50, 90, 99, 100}) {
+      assertThat(left.getDurationPercentile(percentile))
+          .isEqualTo(single.getDurationPercentile(percentile));
+    }
+    assertThat(left.getSlowestTests()).isEqualTo(single.getSlowestTests());
+  }
+
+  @Test
+  public void shouldBoundHistogramError() throws Exception {
+    Random random = new Random(1);
+    for (int i = 0; i < 100000; i++) {
+      long value = random.nextLong() >>> (1 + random.nextInt(63));
+      long highest = DurationHistogram.highestValueIn(DurationHistogram.bucketOf(value));
+      assertThat(highest).isAtLeast(value);
+      assertThat((double) (highest - value)).isAtMost(value / 32.0);
+    }
+  }
+
+  @Test
+  public void shouldListenToParser() throws Exception {
+    TestStatistics statistics = new TestStatistics();
+    new AntXmlParser().parse(getClass().getResourceAsStream("/multiple-testsuites.xml"), UTF_8,
+        statistics);
+    assertThat(statistics.getTotalCount()).isGreaterThan(0L);
+    assertThat(statistics.getClassStatistics()).isNotEmpty();
+  }
+
+  private static TestCase testCase(
+      String className, String name, TestStatus status, long elapsedTimeMillis) {
+    return TestCase.newBuilder()
+        .setClassName(className)
+        .setName(name)
+        .setStatus(status)
+        .setElapsedTimeMillis(elapsedTimeMillis)
+        .build();
+  }
+}